@@ -0,0 +1,220 @@
+package net.earthcomputer.meme.diff;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import net.earthcomputer.meme.diff.IPatchFileFormat.PatchInfo;
+
+/**
+ * The events emitted when JFR is available. This is only loaded by
+ * reflection from {@link DiffEvents}, so that the rest of the library works
+ * without <tt>jdk.jfr</tt>
+ */
+class JfrDiffEvents extends DiffEvents {
+
+	// Checking these before creating an event means that nothing is
+	// allocated when the event isn't being recorded
+	private static final EventType READ = EventType.getEventType(ReadEvent.class);
+	private static final EventType DIFF = EventType.getEventType(DiffEvent.class);
+	private static final EventType PATCH = EventType.getEventType(PatchEvent.class);
+	private static final EventType READ_PATCH = EventType.getEventType(ReadPatchEvent.class);
+	private static final EventType WRITE_PATCH = EventType.getEventType(WritePatchEvent.class);
+
+	@Override
+	Object beginRead() {
+		return READ.isEnabled() ? begin(new ReadEvent()) : null;
+	}
+
+	@Override
+	void endRead(Object event, IDiffFormat<?> format, long bytes, int elements) {
+		if (event != null) {
+			ReadEvent readEvent = (ReadEvent) event;
+			readEvent.end();
+			if (readEvent.shouldCommit()) {
+				readEvent.diffFormat = format.getName();
+				readEvent.bytes = bytes;
+				readEvent.elements = elements;
+				readEvent.commit();
+			}
+		}
+	}
+
+	@Override
+	Object beginDiff() {
+		return DIFF.isEnabled() ? begin(new DiffEvent()) : null;
+	}
+
+	@Override
+	void endDiff(Object event, IDiffFormat<?> format, IDiffAlgorithm algorithm, DiffStats stats) {
+		if (event != null) {
+			DiffEvent diffEvent = (DiffEvent) event;
+			diffEvent.end();
+			if (diffEvent.shouldCommit()) {
+				diffEvent.diffFormat = format.getName();
+				diffEvent.diffAlgorithm = algorithm == null ? "copies" : algorithm.getName();
+				diffEvent.baseElements = stats.getBaseElements();
+				diffEvent.workElements = stats.getWorkElements();
+				diffEvent.editDistance = stats.getEditDistance();
+				diffEvent.hunkCount = stats.getHunkCount();
+				diffEvent.commit();
+			}
+		}
+	}
+
+	@Override
+	Object beginPatch() {
+		return PATCH.isEnabled() ? begin(new PatchEvent()) : null;
+	}
+
+	@Override
+	void endPatch(Object event, IDiffFormat<?> format, boolean streaming, DiffStats stats) {
+		if (event != null) {
+			PatchEvent patchEvent = (PatchEvent) event;
+			patchEvent.end();
+			if (patchEvent.shouldCommit()) {
+				patchEvent.diffFormat = format.getName();
+				patchEvent.streaming = streaming;
+				patchEvent.baseElements = stats.getBaseElements();
+				patchEvent.workElements = stats.getWorkElements();
+				patchEvent.editDistance = stats.getEditDistance();
+				patchEvent.commit();
+			}
+		}
+	}
+
+	@Override
+	Object beginReadPatch() {
+		return READ_PATCH.isEnabled() ? begin(new ReadPatchEvent()) : null;
+	}
+
+	@Override
+	void endReadPatch(Object event, IPatchFileFormat patchFileFormat, PatchInfo<?> patch, long bytes) {
+		if (event != null) {
+			ReadPatchEvent readPatchEvent = (ReadPatchEvent) event;
+			readPatchEvent.end();
+			if (readPatchEvent.shouldCommit()) {
+				readPatchEvent.patchFileFormat = patchFileFormat.getName();
+				readPatchEvent.diffFormat = patch.getFormat().getName();
+				readPatchEvent.changes = getChangeCount(patch);
+				readPatchEvent.bytes = bytes;
+				readPatchEvent.commit();
+			}
+		}
+	}
+
+	@Override
+	Object beginWritePatch() {
+		return WRITE_PATCH.isEnabled() ? begin(new WritePatchEvent()) : null;
+	}
+
+	@Override
+	void endWritePatch(Object event, IPatchFileFormat patchFileFormat, PatchInfo<?> patch, long bytes) {
+		if (event != null) {
+			WritePatchEvent writePatchEvent = (WritePatchEvent) event;
+			writePatchEvent.end();
+			if (writePatchEvent.shouldCommit()) {
+				writePatchEvent.patchFileFormat = patchFileFormat.getName();
+				writePatchEvent.diffFormat = patch.getFormat().getName();
+				writePatchEvent.changes = getChangeCount(patch);
+				writePatchEvent.bytes = bytes;
+				writePatchEvent.commit();
+			}
+		}
+	}
+
+	private static Event begin(Event event) {
+		event.begin();
+		return event;
+	}
+
+	private static int getChangeCount(PatchInfo<?> patch) {
+		return patch.getPatch().getAdditions().size() + patch.getPatch().getDeletions().size();
+	}
+
+	@Name("net.earthcomputer.meme.diff.Read")
+	@Label("Read File")
+	@Category({ "MEMEDiff" })
+	@StackTrace(false)
+	static class ReadEvent extends Event {
+		@Label("Diff Format")
+		String diffFormat;
+		@Label("Bytes")
+		@DataAmount
+		long bytes;
+		@Label("Elements")
+		int elements;
+	}
+
+	@Name("net.earthcomputer.meme.diff.Diff")
+	@Label("Diff")
+	@Category({ "MEMEDiff" })
+	@StackTrace(false)
+	static class DiffEvent extends Event {
+		@Label("Diff Format")
+		String diffFormat;
+		@Label("Diff Algorithm")
+		String diffAlgorithm;
+		@Label("Base Elements")
+		int baseElements;
+		@Label("Work Elements")
+		int workElements;
+		@Label("Edit Distance")
+		int editDistance;
+		@Label("Hunks")
+		int hunkCount;
+	}
+
+	@Name("net.earthcomputer.meme.diff.Patch")
+	@Label("Patch")
+	@Category({ "MEMEDiff" })
+	@StackTrace(false)
+	static class PatchEvent extends Event {
+		@Label("Diff Format")
+		String diffFormat;
+		@Label("Streaming")
+		boolean streaming;
+		@Label("Base Elements")
+		int baseElements;
+		@Label("Work Elements")
+		int workElements;
+		@Label("Edit Distance")
+		int editDistance;
+	}
+
+	@Name("net.earthcomputer.meme.diff.ReadPatch")
+	@Label("Read Patch File")
+	@Category({ "MEMEDiff" })
+	@StackTrace(false)
+	static class ReadPatchEvent extends Event {
+		@Label("Patch File Format")
+		String patchFileFormat;
+		@Label("Diff Format")
+		String diffFormat;
+		@Label("Changes")
+		int changes;
+		@Label("Bytes")
+		@DataAmount
+		long bytes;
+	}
+
+	@Name("net.earthcomputer.meme.diff.WritePatch")
+	@Label("Write Patch File")
+	@Category({ "MEMEDiff" })
+	@StackTrace(false)
+	static class WritePatchEvent extends Event {
+		@Label("Patch File Format")
+		String patchFileFormat;
+		@Label("Diff Format")
+		String diffFormat;
+		@Label("Changes")
+		int changes;
+		@Label("Bytes")
+		@DataAmount
+		long bytes;
+	}
+
+}
@@ -0,0 +1,103 @@
+package net.earthcomputer.meme.diff;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates the base and work files used by the benchmarks. The files look
+ * like Java source code, so that they can be read with every diff format, and
+ * the same seed always gives the same files
+ */
+class BenchmarkInputs {
+
+	/**
+	 * An output stream which throws away everything written to it
+	 */
+	static final OutputStream NULL_OUTPUT = new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	private static final String[] TYPES = { "int", "long", "String", "List<String>", "boolean", "double" };
+
+	private BenchmarkInputs() {
+	}
+
+	/**
+	 * Generates a base file with the given number of lines
+	 */
+	static byte[] generateBase(int lineCount, long seed) {
+		Random rand = new Random(seed);
+		List<String> lines = new ArrayList<String>(lineCount);
+		while (lines.size() < lineCount) {
+			lines.add(generateLine(rand));
+		}
+		return join(lines);
+	}
+
+	/**
+	 * Generates a work file by changing the given fraction of the lines in the
+	 * base file. A third of the changes are deletions, a third are additions
+	 * and a third are replacements
+	 */
+	static byte[] generateWork(byte[] base, double editDensity, long seed) {
+		Random rand = new Random(seed);
+		// Every line ends with a newline, so the last element is always empty,
+		// but the empty lines before it are kept
+		String[] baseLines = new String(base, StandardCharsets.UTF_8).split("\n", -1);
+		List<String> lines = new ArrayList<String>(baseLines.length);
+		for (String line : Arrays.asList(baseLines).subList(0, baseLines.length - 1)) {
+			if (rand.nextDouble() >= editDensity) {
+				lines.add(line);
+				continue;
+			}
+			switch (rand.nextInt(3)) {
+			case 0:
+				// Deleted
+				break;
+			case 1:
+				lines.add(line);
+				lines.add(generateLine(rand));
+				break;
+			default:
+				lines.add(generateLine(rand));
+				break;
+			}
+		}
+		return join(lines);
+	}
+
+	private static String generateLine(Random rand) {
+		switch (rand.nextInt(8)) {
+		case 0:
+			return "";
+		case 1:
+			return "\t}";
+		case 2:
+			return "\t\t// " + Long.toString(rand.nextLong(), 36) + " " + Long.toString(rand.nextLong(), 36);
+		case 3:
+			return "\tpublic " + TYPES[rand.nextInt(TYPES.length)] + " get" + rand.nextInt(1000) + "() {";
+		default:
+			return "\t\t" + TYPES[rand.nextInt(TYPES.length)] + " value" + rand.nextInt(1000) + " = field"
+					+ rand.nextInt(100) + " + " + rand.nextInt(100000) + ";";
+		}
+	}
+
+	private static byte[] join(List<String> lines) {
+		StringBuilder str = new StringBuilder();
+		for (String line : lines) {
+			str.append(line).append('\n');
+		}
+		return str.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+}
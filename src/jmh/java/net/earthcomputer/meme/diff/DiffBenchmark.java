@@ -0,0 +1,68 @@
+package net.earthcomputer.meme.diff;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link DiffFinder#computePatch()} with each diff algorithm
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DiffBenchmark {
+
+	@Param({ "1000", "100000" })
+	public int lines;
+
+	@Param({ "0.001", "0.01", "0.1" })
+	public double editDensity;
+
+	// The byte format makes for very long diffs with lots of lines, so it
+	// has to be asked for with -p diffFormat=byte
+	@Param({ "normal", "java" })
+	public String diffFormat;
+
+	@Param({ "myers", "patience", "histogram", "parallel-myers" })
+	public String diffAlgorithm;
+
+	private IDiffFormat<Object> format;
+	private IDiffAlgorithm algorithm;
+	private List<Object> baseLines;
+	private List<Object> workLines;
+
+	@SuppressWarnings("unchecked")
+	@Setup
+	public void setup() throws IOException {
+		format = (IDiffFormat<Object>) DiffFormats.getByName(diffFormat);
+		algorithm = DiffAlgorithms.getByName(diffAlgorithm);
+		byte[] base = BenchmarkInputs.generateBase(lines, 1);
+		byte[] work = BenchmarkInputs.generateWork(base, editDensity, 2);
+		baseLines = format.readElementsFromBaseFile(ByteBuffer.wrap(base));
+		workLines = format.readElementsFromBaseFile(ByteBuffer.wrap(work));
+	}
+
+	@Benchmark
+	public Patch<Object> computePatch() {
+		return new DiffFinder.Builder<Object>().setDiffFormat(format).setDiffAlgorithm(algorithm)
+				.setBaseLines(baseLines).setWorkLines(workLines).setOutputStream(BenchmarkInputs.NULL_OUTPUT).build()
+				.computePatch();
+	}
+
+}
@@ -0,0 +1,112 @@
+package net.earthcomputer.meme.diff;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the ways each {@link IDiffFormat} reads and writes lines
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DiffFormatBenchmark {
+
+	@Param({ "1000", "100000" })
+	public int lines;
+
+	@Param({ "normal", "exact", "java", "byte" })
+	public String diffFormat;
+
+	private IDiffFormat<Object> format;
+	private byte[] base;
+	private List<Object> baseLines;
+	private byte[] patchFileLines;
+	private byte[] blob;
+
+	@SuppressWarnings("unchecked")
+	@Setup
+	public void setup() throws IOException {
+		format = (IDiffFormat<Object>) DiffFormats.getByName(diffFormat);
+		base = BenchmarkInputs.generateBase(lines, 1);
+		baseLines = format.readElementsFromBaseFile(ByteBuffer.wrap(base));
+		patchFileLines = printToPatchFile().toByteArray();
+		blob = serializeToBlob().toByteArray();
+	}
+
+	@Benchmark
+	public List<Object> readBaseFile() throws IOException {
+		return format.readElementsFromBaseFile(ByteBuffer.wrap(base));
+	}
+
+	@Benchmark
+	public void streamBaseFile(Blackhole blackhole) throws IOException {
+		Iterator<Object> elements = format.streamElementsFromBaseFile(new ByteArrayInputStream(base));
+		while (elements.hasNext()) {
+			blackhole.consume(elements.next());
+		}
+	}
+
+	@Benchmark
+	public void writeWorkFile() throws IOException {
+		format.writeElementsToWorkFile(baseLines, BenchmarkInputs.NULL_OUTPUT);
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream printToPatchFile() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(base.length * 3);
+		PrintWriter pw = new PrintWriter(out);
+		format.printElementsToPatchFile(baseLines, pw);
+		pw.flush();
+		return out;
+	}
+
+	/**
+	 * Reads the lines through a {@link LineReader}, the same way the
+	 * {@link TextPatchFileFormat} does
+	 */
+	@Benchmark
+	public List<Object> readFromPatchFile() {
+		return format.readElementsFromPatchFile(
+				new LineReader(new ByteArrayInputStream(patchFileLines), Charset.defaultCharset(), false),
+				baseLines.size());
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream serializeToBlob() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(base.length * 2);
+		DataOutputStream data = new DataOutputStream(out);
+		format.serializeElementsToBlob(baseLines, data);
+		data.flush();
+		return out;
+	}
+
+	@Benchmark
+	public List<Object> deserializeFromBlob() throws IOException {
+		return format.deserializeElementsFromBlob(baseLines.size(), ByteBuffer.wrap(blob));
+	}
+
+}
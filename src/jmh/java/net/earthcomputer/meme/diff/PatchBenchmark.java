@@ -0,0 +1,73 @@
+package net.earthcomputer.meme.diff;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks applying a patch with the {@link Patcher}, both with the base
+ * file in memory and streamed
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class PatchBenchmark {
+
+	@Param({ "1000", "100000" })
+	public int lines;
+
+	@Param({ "0.001", "0.01", "0.1" })
+	public double editDensity;
+
+	@Param({ "normal", "exact", "java", "byte" })
+	public String diffFormat;
+
+	private IDiffFormat<Object> format;
+	private byte[] base;
+	private List<Object> baseLines;
+	private Patch<Object> patch;
+
+	@SuppressWarnings("unchecked")
+	@Setup
+	public void setup() throws IOException {
+		format = (IDiffFormat<Object>) DiffFormats.getByName(diffFormat);
+		base = BenchmarkInputs.generateBase(lines, 1);
+		byte[] work = BenchmarkInputs.generateWork(base, editDensity, 2);
+		baseLines = format.readElementsFromBaseFile(ByteBuffer.wrap(base));
+		List<Object> workLines = format.readElementsFromBaseFile(ByteBuffer.wrap(work));
+		patch = new DiffFinder.Builder<Object>().setDiffFormat(format).setDiffAlgorithm(DiffAlgorithms.HISTOGRAM)
+				.setBaseLines(baseLines).setWorkLines(workLines).setOutputStream(BenchmarkInputs.NULL_OUTPUT).build()
+				.computePatch();
+	}
+
+	@Benchmark
+	public List<Object> computeWorkFile() {
+		return new Patcher.Builder<Object>().setDiffFormat(format).setBaseLines(baseLines).setPatch(patch)
+				.setOutput(BenchmarkInputs.NULL_OUTPUT).build().computeWorkFile();
+	}
+
+	@Benchmark
+	public void writeWorkFileStreaming() {
+		new Patcher.Builder<Object>().setDiffFormat(format).setStreaming(true)
+				.setBaseInputStream(new ByteArrayInputStream(base)).setPatch(patch)
+				.setOutput(BenchmarkInputs.NULL_OUTPUT).build().writeWorkFile();
+	}
+
+}
@@ -0,0 +1,79 @@
+package net.earthcomputer.meme.diff;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.earthcomputer.meme.diff.IPatchFileFormat.PatchInfo;
+
+/**
+ * Benchmarks reading and writing a patch with each {@link IPatchFileFormat}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class PatchFileFormatBenchmark {
+
+	@Param({ "1000", "100000" })
+	public int lines;
+
+	@Param({ "0.01", "0.1" })
+	public double editDensity;
+
+	@Param({ "normal" })
+	public String diffFormat;
+
+	@Param({ "text", "binary", "delta", "indexed", "deflate-text", "deflate-binary" })
+	public String patchFileFormat;
+
+	private IPatchFileFormat patchFormat;
+	private PatchInfo<Object> patch;
+	private byte[] patchFile;
+
+	@SuppressWarnings("unchecked")
+	@Setup
+	public void setup() throws IOException {
+		IDiffFormat<Object> format = (IDiffFormat<Object>) DiffFormats.getByName(diffFormat);
+		patchFormat = PatchFileFormats.byName(patchFileFormat);
+		byte[] base = BenchmarkInputs.generateBase(lines, 1);
+		byte[] work = BenchmarkInputs.generateWork(base, editDensity, 2);
+		List<Object> baseLines = format.readElementsFromBaseFile(ByteBuffer.wrap(base));
+		List<Object> workLines = format.readElementsFromBaseFile(ByteBuffer.wrap(work));
+		patch = new PatchInfo<Object>(format,
+				new DiffFinder.Builder<Object>().setDiffFormat(format).setDiffAlgorithm(DiffAlgorithms.HISTOGRAM)
+						.setDetectCopies(patchFormat.supportsCopies()).setBaseLines(baseLines).setWorkLines(workLines)
+						.setOutputStream(BenchmarkInputs.NULL_OUTPUT).build().computePatch());
+		patchFile = writePatch().toByteArray();
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream writePatch() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+		patchFormat.writePatch(patch, out);
+		return out;
+	}
+
+	@Benchmark
+	public PatchInfo<Object> readPatch() throws IOException, InvalidPatchFormatException {
+		return patchFormat.readPatch(new ByteArrayInputStream(patchFile));
+	}
+
+}
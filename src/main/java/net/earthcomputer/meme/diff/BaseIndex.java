@@ -0,0 +1,303 @@
+package net.earthcomputer.meme.diff;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A 64-bit fingerprint of each line of a base file, kept in a sidecar file
+ * next to it, so that a base file which is diffed against many work files
+ * only has to be read and split into lines once. Given to a
+ * {@link DiffFinder.Builder} in place of the base file, only the work file is
+ * read. The sidecar is memory mapped, and is rebuilt whenever the base file
+ * has changed since it was written.
+ *
+ * Lines are compared by their fingerprints rather than by the diff format,
+ * so two different lines with the same fingerprint would be treated as equal.
+ * The chance of this is around one in 2^64 for each pair of distinct lines.
+ * Copies can't be detected using an index, so the base file is read as usual
+ * when detecting copies
+ */
+public class BaseIndex {
+
+	// @formatter:off
+	private static final int MAGIC =
+			('M' << 24) |
+			('B' << 16) |
+			('I' << 8) |
+			('X' << 0);
+	// @formatter:on
+	private static final int VERSION = 0;
+
+	/**
+	 * The extension added to the name of the base file to get the name of its
+	 * sidecar
+	 */
+	public static final String EXTENSION = ".mbix";
+
+	private final File baseFile;
+	private final String diffFormat;
+	private final byte[] baseHash;
+	private final LongBuffer fingerprints;
+
+	private BaseIndex(File baseFile, String diffFormat, byte[] baseHash, LongBuffer fingerprints) {
+		this.baseFile = baseFile;
+		this.diffFormat = diffFormat;
+		this.baseHash = baseHash;
+		this.fingerprints = fingerprints;
+	}
+
+	/**
+	 * Opens the index of the given base file in its sidecar, creating or
+	 * rebuilding the sidecar if needed
+	 */
+	public static BaseIndex open(File baseFile, IDiffFormat<?> format) {
+		return open(baseFile, format, new File(baseFile.getPath() + EXTENSION));
+	}
+
+	/**
+	 * Opens the index of the given base file in the given sidecar file,
+	 * creating or rebuilding the sidecar if needed. If the sidecar can't be
+	 * written, the index is only kept in memory
+	 */
+	public static BaseIndex open(File baseFile, IDiffFormat<?> format, File indexFile) {
+		// Find these out before reading the base file, so that if it changes
+		// while it's being read, the index is rebuilt next time
+		long length = baseFile.length();
+		long lastModified = baseFile.lastModified();
+		if (!baseFile.isFile()) {
+			throw new NoSuchFileException(baseFile.getAbsolutePath());
+		}
+
+		byte[] baseHash = null;
+		if (indexFile.isFile()) {
+			BaseIndex index = null;
+			Header header = null;
+			try {
+				ByteBuffer buffer = Utils.mapFile(indexFile);
+				if (buffer != null) {
+					header = Header.read(buffer);
+					if (header.diffFormat.equals(format.getName()) && header.length == length) {
+						index = new BaseIndex(baseFile, header.diffFormat, header.baseHash, header.fingerprints);
+					}
+				}
+			} catch (IOException e) {
+				// Rebuild it
+			} catch (InvalidPatchFormatException e) {
+				// Rebuild it
+			} catch (NoSuchFileException e) {
+				// Rebuild it
+			}
+			if (index != null) {
+				if (header.lastModified == lastModified) {
+					return index;
+				}
+				// The base file has been touched, but it may not have changed
+				baseHash = Utils.sha256(baseFile);
+				if (Arrays.equals(baseHash, header.baseHash)) {
+					write(indexFile, format.getName(), length, lastModified, baseHash, header.fingerprints);
+					return index;
+				}
+			}
+		}
+
+		if (baseHash == null) {
+			baseHash = Utils.sha256(baseFile);
+		}
+		LongBuffer fingerprints = LongBuffer.wrap(fingerprintFile(format, baseFile));
+		write(indexFile, format.getName(), length, lastModified, baseHash, fingerprints);
+		return new BaseIndex(baseFile, format.getName(), baseHash, fingerprints);
+	}
+
+	private static <T> long[] fingerprintFile(IDiffFormat<T> format, File baseFile) {
+		return fingerprint(format, Utils.readElements(format, baseFile));
+	}
+
+	/**
+	 * Writes the sidecar to a temporary file and then moves it into place, so
+	 * that a sidecar which is being written is never read. Failing to write
+	 * it only means the base file will have to be read again next time
+	 */
+	private static void write(File indexFile, String diffFormat, long length, long lastModified, byte[] baseHash,
+			LongBuffer fingerprints) {
+		Path directory = indexFile.getAbsoluteFile().getParentFile().toPath();
+		Path temp = null;
+		try {
+			temp = Files.createTempFile(directory, "." + indexFile.getName() + ".", ".tmp");
+			OutputStream out = Utils.getFileOutputStream(temp.toFile());
+			try {
+				DataOutputStream data = new DataOutputStream(out);
+				data.writeInt(MAGIC);
+				data.write(VERSION);
+				data.writeUTF(diffFormat);
+				data.writeLong(length);
+				data.writeLong(lastModified);
+				data.write(baseHash);
+				data.writeInt(fingerprints.limit());
+				for (int i = 0; i < fingerprints.limit(); i++) {
+					data.writeLong(fingerprints.get(i));
+				}
+				data.flush();
+			} finally {
+				Utils.closeQuietly(out);
+			}
+			try {
+				Files.move(temp, indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			// Only kept in memory
+		} finally {
+			if (temp != null) {
+				try {
+					Files.deleteIfExists(temp);
+				} catch (IOException e) {
+					// Nothing more can be done
+				}
+			}
+		}
+	}
+
+	/**
+	 * The contents of a sidecar file
+	 */
+	private static class Header {
+		String diffFormat;
+		long length;
+		long lastModified;
+		byte[] baseHash;
+		LongBuffer fingerprints;
+
+		static Header read(ByteBuffer buffer) throws IOException, InvalidPatchFormatException {
+			DataInputStream data = new DataInputStream(new ByteBufferInputStream(buffer));
+			if (data.readInt() != MAGIC) {
+				throw new InvalidPatchFormatException("Invalid magic number");
+			}
+			int version = data.readUnsignedByte();
+			if (version != VERSION) {
+				throw new InvalidPatchFormatException("Unsupported index version: " + version);
+			}
+			Header header = new Header();
+			header.diffFormat = data.readUTF();
+			header.length = data.readLong();
+			header.lastModified = data.readLong();
+			header.baseHash = new byte[32];
+			data.readFully(header.baseHash);
+			int count = data.readInt();
+			if (count < 0 || buffer.remaining() != (long) count * 8) {
+				throw new InvalidPatchFormatException("Invalid element count");
+			}
+			header.fingerprints = buffer.slice().asLongBuffer();
+			return header;
+		}
+	}
+
+	/**
+	 * Returns the fingerprints of the given elements. Equal elements have
+	 * equal fingerprints, and unequal elements almost certainly don't. Each
+	 * element is hashed as it's serialized into a blob, which unlike
+	 * {@link IDiffFormat#serializeElement(Object, DataOutputStream)} has no
+	 * limit on the length of a line
+	 */
+	static <T> long[] fingerprint(IDiffFormat<T> format, List<T> elements) {
+		long[] fingerprints = new long[elements.size()];
+		FingerprintOutputStream out = new FingerprintOutputStream();
+		DataOutputStream data = new DataOutputStream(out);
+		for (int i = 0; i < fingerprints.length; i++) {
+			try {
+				format.serializeElementsToBlob(elements.subList(i, i + 1), data);
+			} catch (IOException e) {
+				throw new IllegalArgumentException(
+						"Line " + (i + 1) + " can't be serialized in the " + format.getName() + " diff format", e);
+			}
+			fingerprints[i] = out.finish();
+		}
+		return fingerprints;
+	}
+
+	/**
+	 * Hashes the bytes written to it with 64-bit FNV-1a, with a final mix so
+	 * that every bit of the hash depends on every byte
+	 */
+	private static class FingerprintOutputStream extends OutputStream {
+		private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+		private static final long PRIME = 0x100000001b3L;
+
+		private long hash = OFFSET_BASIS;
+		private int length;
+
+		@Override
+		public void write(int b) {
+			hash = (hash ^ (b & 0xff)) * PRIME;
+			length++;
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int len) {
+			long hash = this.hash;
+			for (int i = offset; i < offset + len; i++) {
+				hash = (hash ^ (bytes[i] & 0xff)) * PRIME;
+			}
+			this.hash = hash;
+			length += len;
+		}
+
+		/**
+		 * Returns the fingerprint of the bytes written since the last call
+		 */
+		long finish() {
+			long h = hash ^ length;
+			h ^= h >>> 33;
+			h *= 0xff51afd7ed558ccdL;
+			h ^= h >>> 33;
+			h *= 0xc4ceb9fe1a85ec53L;
+			h ^= h >>> 33;
+			hash = OFFSET_BASIS;
+			length = 0;
+			return h;
+		}
+	}
+
+	public File getBaseFile() {
+		return baseFile;
+	}
+
+	/**
+	 * Returns the name of the diff format the base file was split into lines
+	 * with
+	 */
+	public String getDiffFormat() {
+		return diffFormat;
+	}
+
+	/**
+	 * Returns the number of lines in the base file
+	 */
+	public int getElementCount() {
+		return fingerprints.limit();
+	}
+
+	long getFingerprint(int index) {
+		return fingerprints.get(index);
+	}
+
+	/**
+	 * Returns the SHA-256 hash of the base file
+	 */
+	byte[] getBaseHash() {
+		return baseHash;
+	}
+
+}
@@ -5,7 +5,7 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 import net.earthcomputer.meme.diff.Patch.Addition;
@@ -23,7 +23,7 @@ public class BinaryPatchFileFormat implements IPatchFileFormat {
 			('I' << 8) |
 			('F' << 0);
 	// @formatter:on
-	private static final int VERSION = 0;
+	private static final int VERSION = 1;
 
 	@Override
 	public String getName() {
@@ -40,6 +40,8 @@ public class BinaryPatchFileFormat implements IPatchFileFormat {
 		switch (version) {
 		case 0:
 			return readPatchVersion0(data);
+		case 1:
+			return readPatchVersion1(data);
 		default:
 			throw new InvalidPatchFormatException("Unsupported patch format version: " + version);
 		}
@@ -69,10 +71,7 @@ public class BinaryPatchFileFormat implements IPatchFileFormat {
 			if (len < 0) {
 				throw new InvalidPatchFormatException("len < 0");
 			}
-			List<T> addedLines = new ArrayList<T>(len);
-			for (int j = 0; j < len; j++) {
-				addedLines.add(patch.getFormat().deserializeElement(data));
-			}
+			List<T> addedLines = patch.getFormat().deserializeElements(len, data);
 			patch.getPatch().addAddition(new Addition<T>(addedLines, start, len));
 		}
 
@@ -95,6 +94,70 @@ public class BinaryPatchFileFormat implements IPatchFileFormat {
 		return patch;
 	}
 
+	/**
+	 * Version 1 stores numbers as varints, stores each start relative to the
+	 * previous change, and stores the added lines of each addition as a blob
+	 * prefixed by its size, so they can be read in one go
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> PatchInfo<T> readPatchVersion1(DataInputStream data)
+			throws IOException, InvalidPatchFormatException {
+		PatchInfo<T> patch = new PatchInfo<T>();
+
+		patch.setFormat((IDiffFormat<T>) DiffFormats.getByName(data.readUTF()));
+		if (patch.getFormat() == null) {
+			throw new InvalidPatchFormatException("Invalid diff format");
+		}
+		patch.setPatch(new Patch<T>());
+
+		int numAdditions = Utils.readVarInt(data);
+		if (numAdditions < 0) {
+			throw new InvalidPatchFormatException("numAdditions < 0");
+		}
+		int prevStart = 0;
+		for (int i = 0; i < numAdditions; i++) {
+			int start = prevStart + Utils.readSignedVarInt(data);
+			if (start < 0) {
+				throw new InvalidPatchFormatException("start < 0");
+			}
+			int len = Utils.readVarInt(data);
+			if (len < 0) {
+				throw new InvalidPatchFormatException("len < 0");
+			}
+			int blobSize = Utils.readVarInt(data);
+			if (blobSize < 0) {
+				throw new InvalidPatchFormatException("blobSize < 0");
+			}
+			ByteBuffer blobBuffer = ByteBuffer.wrap(Utils.readBytes(data, blobSize));
+			List<T> addedLines = patch.getFormat().deserializeElementsFromBlob(len, blobBuffer);
+			if (blobBuffer.hasRemaining()) {
+				throw new InvalidPatchFormatException("Addition has more data than lines");
+			}
+			patch.getPatch().addAddition(new Addition<T>(addedLines, start, len));
+			prevStart = start;
+		}
+
+		int numDeletions = Utils.readVarInt(data);
+		if (numDeletions < 0) {
+			throw new InvalidPatchFormatException("numDeletions < 0");
+		}
+		int prevEnd = 0;
+		for (int i = 0; i < numDeletions; i++) {
+			int start = prevEnd + Utils.readSignedVarInt(data);
+			if (start < 0) {
+				throw new InvalidPatchFormatException("start < 0");
+			}
+			int len = Utils.readVarInt(data);
+			if (len < 0) {
+				throw new InvalidPatchFormatException("len < 0");
+			}
+			patch.getPatch().addDeletion(new Deletion<T>(start, len));
+			prevEnd = start + len;
+		}
+
+		return patch;
+	}
+
 	@Override
 	public <T> void writePatch(PatchInfo<T> patch, OutputStream out) throws IOException {
 		DataOutputStream data = new DataOutputStream(out);
@@ -105,23 +168,30 @@ public class BinaryPatchFileFormat implements IPatchFileFormat {
 		data.writeUTF(patch.getFormat().getName());
 
 		List<Addition<T>> additions = patch.getPatch().getAdditions();
-		data.writeInt(additions.size());
+		Utils.writeVarInt(data, additions.size());
+		BlobOutputStream blob = new BlobOutputStream();
+		DataOutputStream blobData = new DataOutputStream(blob);
+		int prevStart = 0;
 		for (Addition<T> addition : additions) {
-			data.writeInt(addition.getStart());
-			data.writeInt(addition.getLength());
-			List<T> addedLines = addition.getAddedLines();
-			for (T addedLine : addedLines) {
-				patch.getFormat().serializeElement(addedLine, data);
-			}
+			Utils.writeSignedVarInt(data, addition.getStart() - prevStart);
+			Utils.writeVarInt(data, addition.getLength());
+			blob.reset();
+			patch.getFormat().serializeElementsToBlob(addition.getAddedLines(), blobData);
+			blobData.flush();
+			Utils.writeVarInt(data, blob.size());
+			blob.writeTo(data);
+			prevStart = addition.getStart();
 		}
 
 		List<Deletion<T>> deletions = patch.getPatch().getDeletions();
-		data.writeInt(deletions.size());
+		Utils.writeVarInt(data, deletions.size());
+		int prevEnd = 0;
 		for (Deletion<T> deletion : deletions) {
-			data.writeInt(deletion.getStart());
-			data.writeInt(deletion.getLength());
+			Utils.writeSignedVarInt(data, deletion.getStart() - prevEnd);
+			Utils.writeVarInt(data, deletion.getLength());
+			prevEnd = deletion.getStart() + deletion.getLength();
 		}
-		
+
 		data.flush();
 		data.close();
 	}
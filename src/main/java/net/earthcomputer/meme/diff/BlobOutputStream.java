@@ -0,0 +1,72 @@
+package net.earthcomputer.meme.diff;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects a blob in fixed size chunks, so that a large blob isn't copied over
+ * and over again as it grows. Used to find out the size of a blob before
+ * writing it
+ */
+class BlobOutputStream extends OutputStream {
+
+	private static final int CHUNK_SIZE = 65536;
+
+	private final List<byte[]> chunks = new ArrayList<byte[]>();
+	// The number of bytes in the last chunk
+	private int chunkSize = CHUNK_SIZE;
+	private int size;
+
+	@Override
+	public void write(int b) {
+		if (chunkSize == CHUNK_SIZE) {
+			nextChunk();
+		}
+		chunks.get(chunks.size() - 1)[chunkSize++] = (byte) b;
+		size++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		size += len;
+		while (len > 0) {
+			if (chunkSize == CHUNK_SIZE) {
+				nextChunk();
+			}
+			int count = Math.min(len, CHUNK_SIZE - chunkSize);
+			System.arraycopy(b, off, chunks.get(chunks.size() - 1), chunkSize, count);
+			chunkSize += count;
+			off += count;
+			len -= count;
+		}
+	}
+
+	private void nextChunk() {
+		chunks.add(new byte[CHUNK_SIZE]);
+		chunkSize = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void writeTo(OutputStream out) throws IOException {
+		for (int i = 0; i < chunks.size(); i++) {
+			out.write(chunks.get(i), 0, i == chunks.size() - 1 ? chunkSize : CHUNK_SIZE);
+		}
+	}
+
+	/**
+	 * Empties the blob, keeping the first chunk for the next one
+	 */
+	public void reset() {
+		while (chunks.size() > 1) {
+			chunks.remove(chunks.size() - 1);
+		}
+		chunkSize = chunks.isEmpty() ? CHUNK_SIZE : 0;
+		size = 0;
+	}
+
+}
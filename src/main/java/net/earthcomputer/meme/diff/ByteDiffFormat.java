@@ -2,58 +2,146 @@ package net.earthcomputer.meme.diff;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.util.InputMismatchException;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.regex.Pattern;
 
 /**
- * The byte diff format, compares files byte-by-byte
+ * The byte diff format, compares files byte-by-byte. Lines are stored in a
+ * {@link ByteList} wherever possible
  */
 public class ByteDiffFormat implements IDiffFormat<Byte> {
 
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+	private static final Pattern HEX_PATTERN = Pattern.compile("[0-9A-Fa-f]*");
+
 	@Override
 	public String getName() {
 		return "byte";
 	}
 
+	@Override
+	public boolean elementsEqual(Byte a, Byte b) {
+		return a.byteValue() == b.byteValue();
+	}
+
 	@Override
 	public List<Byte> readElementsFromBaseFile(InputStream in) throws IOException {
-		List<Byte> bytes = new ArrayList<Byte>();
-		int _byte;
-		while ((_byte = in.read()) != -1) {
-			bytes.add((byte) _byte);
-		}
-		return bytes;
+		return ByteList.readFrom(in);
+	}
+
+	@Override
+	public List<Byte> readElementsFromBaseFile(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return new ByteList(bytes);
+	}
+
+	@Override
+	public Iterator<Byte> streamElementsFromBaseFile(final InputStream in) {
+		return new Iterator<Byte>() {
+			private final byte[] buffer = new byte[8192];
+			private int position;
+			private int limit;
+
+			@Override
+			public boolean hasNext() {
+				while (position == limit) {
+					int read;
+					try {
+						read = in.read(buffer);
+					} catch (IOException e) {
+						throw new NoSuchFileException("in", e);
+					}
+					if (read == -1) {
+						return false;
+					}
+					position = 0;
+					limit = read;
+				}
+				return true;
+			}
+
+			@Override
+			public Byte next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return buffer[position++];
+			}
+		};
 	}
 
 	@Override
 	public List<Byte> readElementsFromPatchFile(Scanner in, int count) {
-		List<Byte> bytes = new ArrayList<Byte>();
-		String bytesString = in.next("[0-9A-Za-z]{" + (count * 2) + "}");
-		for (int i = 0; i < bytesString.length() - 1; i += 2) {
-			bytes.add((byte) Integer.parseInt(bytesString.substring(i, i + 2), 16));
+		return parseHex(in.next("[0-9A-Za-z]{" + (count * 2) + "}"), count);
+	}
+
+	@Override
+	public List<Byte> readElementsFromPatchFile(Iterator<String> lines, int count) {
+		String bytesString = lines.next().trim();
+		if (!HEX_PATTERN.matcher(bytesString).matches() || bytesString.length() != count * 2) {
+			throw new InputMismatchException("Expected " + count + " bytes in hex");
 		}
-		return bytes;
+		return parseHex(bytesString, count);
+	}
+
+	private static List<Byte> parseHex(String bytesString, int count) {
+		byte[] bytes = new byte[count];
+		for (int i = 0; i < count; i++) {
+			bytes[i] = (byte) ((Character.digit(bytesString.charAt(i * 2), 16) << 4)
+					| Character.digit(bytesString.charAt(i * 2 + 1), 16));
+		}
+		return new ByteList(bytes);
 	}
 
 	@Override
 	public void writeElementsToWorkFile(List<Byte> elements, OutputStream out) throws IOException {
-		byte[] bytes = new byte[elements.size()];
-		for (int i = 0; i < bytes.length; i++) {
-			bytes[i] = elements.get(i);
+		toByteList(elements).writeTo(out);
+	}
+
+	@Override
+	public void appendElementsToWorkFile(List<Byte> elements, OutputStream out) throws IOException {
+		toByteList(elements).writeTo(out);
+	}
+
+	@Override
+	public List<Byte> copyElements(List<Byte> elements, int fromIndex, int toIndex) {
+		if (elements instanceof ByteList) {
+			return ((ByteList) elements).copyRange(fromIndex, toIndex);
+		}
+		ByteList copy = new ByteList(toIndex - fromIndex);
+		copy.addAll(elements.subList(fromIndex, toIndex));
+		return copy;
+	}
+
+	@Override
+	public void appendElements(List<Byte> dest, List<Byte> elements, int fromIndex, int toIndex) {
+		if (dest instanceof ByteList && elements instanceof ByteList) {
+			((ByteList) dest).addAll((ByteList) elements, fromIndex, toIndex);
+		} else {
+			dest.addAll(elements.subList(fromIndex, toIndex));
 		}
-		out.write(bytes);
 	}
 
 	@Override
 	public void printElementsToPatchFile(List<Byte> elements, PrintWriter out) {
-		for (Byte element : elements) {
-			out.printf("%02X", element);
+		char[] chars = new char[elements.size() * 2];
+		for (int i = 0; i < elements.size(); i++) {
+			byte element = elements.get(i);
+			chars[i * 2] = HEX_DIGITS[(element >> 4) & 15];
+			chars[i * 2 + 1] = HEX_DIGITS[element & 15];
 		}
+		out.write(chars);
 		// Always print a newline
 		out.println();
 	}
@@ -68,4 +156,31 @@ public class ByteDiffFormat implements IDiffFormat<Byte> {
 		return data.readByte();
 	}
 
+	@Override
+	public void serializeElements(List<Byte> elements, DataOutputStream data) throws IOException {
+		toByteList(elements).writeTo(data);
+	}
+
+	@Override
+	public List<Byte> deserializeElements(int count, DataInputStream data) throws IOException {
+		byte[] bytes = new byte[count];
+		data.readFully(bytes);
+		return new ByteList(bytes);
+	}
+
+	@Override
+	public List<Byte> deserializeElementsFromBlob(int count, ByteBuffer blob) throws IOException {
+		if (count > blob.remaining()) {
+			throw new EOFException();
+		}
+		byte[] bytes = new byte[count];
+		blob.get(bytes);
+		return new ByteList(bytes);
+	}
+
+	private ByteList toByteList(List<Byte> elements) {
+		return elements instanceof ByteList ? (ByteList) elements
+				: (ByteList) copyElements(elements, 0, elements.size());
+	}
+
 }
@@ -0,0 +1,183 @@
+package net.earthcomputer.meme.diff;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * A list of bytes backed by a byte array, used by the byte diff format so that
+ * there doesn't need to be a reference to a boxed byte for every byte in the
+ * file. {@link #get(int)} only ever returns the cached instances from
+ * {@link Byte#valueOf(byte)}
+ */
+public class ByteList extends AbstractList<Byte> implements RandomAccess {
+
+	private byte[] bytes;
+	private int size;
+
+	public ByteList() {
+		this(16);
+	}
+
+	public ByteList(int capacity) {
+		this.bytes = new byte[capacity];
+	}
+
+	/**
+	 * Creates a list backed by the given array, which is not copied
+	 */
+	public ByteList(byte[] bytes) {
+		this.bytes = bytes;
+		this.size = bytes.length;
+	}
+
+	/**
+	 * Reads all the bytes from the given input stream
+	 */
+	public static ByteList readFrom(InputStream in) throws IOException {
+		ByteList list = new ByteList(Math.max(in.available(), 8192));
+		int read;
+		while ((read = in.read(list.bytes, list.size, list.bytes.length - list.size)) != -1) {
+			list.size += read;
+			if (list.size == list.bytes.length) {
+				list.ensureCapacity(list.size + 1);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Writes all the bytes to the given output stream
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(bytes, 0, size);
+	}
+
+	/**
+	 * Returns a new list containing the bytes between <tt>fromIndex</tt>
+	 * (inclusive) and <tt>toIndex</tt> (exclusive)
+	 */
+	public ByteList copyRange(int fromIndex, int toIndex) {
+		if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+			throw new IndexOutOfBoundsException("fromIndex = " + fromIndex + ", toIndex = " + toIndex);
+		}
+		return new ByteList(Arrays.copyOfRange(bytes, fromIndex, toIndex));
+	}
+
+	/**
+	 * Returns a copy of the bytes in this list
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(bytes, size);
+	}
+
+	/**
+	 * Returns a buffer backed by the bytes in this list, which is not copied,
+	 * so the list must not be changed while the buffer is in use
+	 */
+	public ByteBuffer asByteBuffer() {
+		return ByteBuffer.wrap(bytes, 0, size);
+	}
+
+	public byte getByte(int index) {
+		checkIndex(index);
+		return bytes[index];
+	}
+
+	@Override
+	public Byte get(int index) {
+		return getByte(index);
+	}
+
+	@Override
+	public Byte set(int index, Byte element) {
+		checkIndex(index);
+		byte old = bytes[index];
+		bytes[index] = element;
+		return old;
+	}
+
+	@Override
+	public void add(int index, Byte element) {
+		if (index < 0 || index > size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		ensureCapacity(size + 1);
+		System.arraycopy(bytes, index, bytes, index + 1, size - index);
+		bytes[index] = element;
+		size++;
+		modCount++;
+	}
+
+	@Override
+	public boolean addAll(int index, Collection<? extends Byte> c) {
+		if (!(c instanceof ByteList)) {
+			return super.addAll(index, c);
+		}
+		if (index < 0 || index > size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		ByteList other = (ByteList) c;
+		int otherSize = other.size;
+		ensureCapacity(size + otherSize);
+		System.arraycopy(bytes, index, bytes, index + otherSize, size - index);
+		System.arraycopy(other.bytes, 0, bytes, index, otherSize);
+		size += otherSize;
+		modCount++;
+		return otherSize != 0;
+	}
+
+	/**
+	 * Appends the bytes of <tt>other</tt> between <tt>fromIndex</tt>
+	 * (inclusive) and <tt>toIndex</tt> (exclusive) to the end of this list
+	 */
+	public void addAll(ByteList other, int fromIndex, int toIndex) {
+		if (fromIndex < 0 || toIndex > other.size || fromIndex > toIndex) {
+			throw new IndexOutOfBoundsException("fromIndex = " + fromIndex + ", toIndex = " + toIndex);
+		}
+		int length = toIndex - fromIndex;
+		ensureCapacity(size + length);
+		System.arraycopy(other.bytes, fromIndex, bytes, size, length);
+		size += length;
+		modCount++;
+	}
+
+	@Override
+	public Byte remove(int index) {
+		checkIndex(index);
+		byte old = bytes[index];
+		System.arraycopy(bytes, index + 1, bytes, index, size - index - 1);
+		size--;
+		modCount++;
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		size = 0;
+		modCount++;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+		}
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+
+}
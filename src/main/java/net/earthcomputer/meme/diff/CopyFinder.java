@@ -0,0 +1,209 @@
+package net.earthcomputer.meme.diff;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.earthcomputer.meme.diff.Patch.Addition;
+import net.earthcomputer.meme.diff.Patch.Copy;
+import net.earthcomputer.meme.diff.Patch.Deletion;
+
+/**
+ * Builds a patch out of copies of runs of base lines and literal additions, in
+ * the style of xdelta, rather than by finding the longest common subsequence.
+ * This copes with blocks of lines which have moved around, and runs in linear
+ * time, which makes it far better suited to binary files than the diff
+ * algorithms.
+ *
+ * The base is indexed by the rolling hash of every block of
+ * <tt>minCopyLength</tt> lines starting at a multiple of half that length. The
+ * work is then scanned with the same rolling hash, and every match is extended
+ * as far as it goes in both directions. Copies which carry on from where the
+ * previous one left off in the base are turned into unchanged lines, and the
+ * base lines skipped over by them are deleted
+ */
+class CopyFinder<T> {
+
+	private static final int HASH_MULTIPLIER = 0x01000193;
+
+	private final IDiffFormat<T> format;
+	private final List<T> baseLines;
+	private final List<T> workLines;
+	private final int minCopyLength;
+	private final Patch<T> patch;
+
+	// IDs of all the base lines, and the work lines from workOffset onwards
+	private int[] baseIds;
+	private int[] workIds;
+	private int workOffset;
+
+	// The next base line which hasn't been deleted or kept yet, and the
+	// additions waiting for the next deletion before they can be added
+	private int baseIndex;
+	private final List<Addition<T>> pendingAdditions = new ArrayList<Addition<T>>();
+
+	private CopyFinder(IDiffFormat<T> format, List<T> baseLines, List<T> workLines, int minCopyLength,
+			Patch<T> patch) {
+		this.format = format;
+		this.baseLines = baseLines;
+		this.workLines = workLines;
+		this.minCopyLength = minCopyLength;
+		this.patch = patch;
+	}
+
+	/**
+	 * Adds the changes between base lines <tt>start</tt> to <tt>baseEnd</tt>
+	 * and work lines <tt>start</tt> to <tt>workEnd</tt> to the patch. The
+	 * lines either side of these ranges must be equal. Copies may come from
+	 * anywhere in the base
+	 */
+	static <T> void findChanges(IDiffFormat<T> format, List<T> baseLines, List<T> workLines, int start, int baseEnd,
+			int workEnd, int minCopyLength, Patch<T> patch) {
+		CopyFinder<T> finder = new CopyFinder<T>(format, baseLines, workLines, minCopyLength, patch);
+		ElementInterner<T> interner = new ElementInterner<T>(format);
+		finder.baseIds = interner.intern(baseLines, 0, baseLines.size());
+		finder.workIds = interner.intern(workLines, start, workEnd);
+		finder.workOffset = start;
+		finder.baseIndex = start;
+		finder.findChanges(baseEnd);
+	}
+
+	private void findChanges(int baseEnd) {
+		int blockSize = minCopyLength;
+		int workLength = workIds.length;
+		if (baseIds.length < blockSize || workLength < blockSize) {
+			addLiteral(0, workLength);
+			keep(baseEnd, 0, baseEnd);
+			return;
+		}
+
+		int step = Math.max(1, blockSize / 2);
+		int[] index = buildIndex(blockSize, step);
+		int mask = index.length - 1;
+
+		int highPower = 1;
+		for (int i = 1; i < blockSize; i++) {
+			highPower *= HASH_MULTIPLIER;
+		}
+
+		int literalStart = 0;
+		int j = 0;
+		int hash = hash(workIds, 0, blockSize);
+		while (j + blockSize <= workLength) {
+			int candidate = index[mix(hash) & mask];
+			if (candidate != -1 && blockEquals(candidate, j, blockSize)) {
+				// Extend the match in both directions
+				int copyStart = candidate, workStart = j;
+				while (copyStart > 0 && workStart > literalStart
+						&& baseIds[copyStart - 1] == workIds[workStart - 1]) {
+					copyStart--;
+					workStart--;
+				}
+				int length = j - workStart + blockSize;
+				while (copyStart + length < baseIds.length && workStart + length < workLength
+						&& baseIds[copyStart + length] == workIds[workStart + length]) {
+					length++;
+				}
+
+				addLiteral(literalStart, workStart);
+				addCopy(copyStart, length, baseEnd);
+				j = workStart + length;
+				literalStart = j;
+				if (j + blockSize <= workLength) {
+					hash = hash(workIds, j, blockSize);
+				}
+			} else {
+				if (j + blockSize < workLength) {
+					hash = (hash - workIds[j] * highPower) * HASH_MULTIPLIER + workIds[j + blockSize];
+				}
+				j++;
+			}
+		}
+
+		addLiteral(literalStart, workLength);
+		keep(baseEnd, 0, baseEnd);
+	}
+
+	/**
+	 * Returns a hash table from block hashes to the first base index where a
+	 * block with that hash starts, or -1
+	 */
+	private int[] buildIndex(int blockSize, int step) {
+		int blockCount = (baseIds.length - blockSize) / step + 1;
+		int tableSize = Integer.highestOneBit(Math.max(blockCount * 2 - 1, 1)) << 1;
+		int[] index = new int[tableSize];
+		Arrays.fill(index, -1);
+		int mask = tableSize - 1;
+		for (int i = 0; i + blockSize <= baseIds.length; i += step) {
+			int slot = mix(hash(baseIds, i, blockSize)) & mask;
+			if (index[slot] == -1) {
+				index[slot] = i;
+			}
+		}
+		return index;
+	}
+
+	private boolean blockEquals(int baseStart, int workStart, int blockSize) {
+		for (int i = 0; i < blockSize; i++) {
+			if (baseIds[baseStart + i] != workIds[workStart + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void addLiteral(int workStart, int workEnd) {
+		if (workStart != workEnd) {
+			List<T> addedLines = format.copyElements(workLines, workOffset + workStart, workOffset + workEnd);
+			pendingAdditions.add(new Addition<T>(addedLines, -1, addedLines.size()));
+		}
+	}
+
+	private void addCopy(int copyStart, int length, int baseEnd) {
+		if (copyStart >= baseIndex && copyStart + length <= baseEnd) {
+			// This carries on in the same order as the base, so just delete
+			// the lines in between
+			keep(copyStart, copyStart + length, baseEnd);
+		} else {
+			pendingAdditions.add(new Copy<T>(baseLines.subList(copyStart, copyStart + length), -1, copyStart + 1,
+					length));
+		}
+	}
+
+	/**
+	 * Deletes the base lines up to <tt>keepStart</tt>, adds the pending
+	 * additions after them, then keeps the base lines up to <tt>keepEnd</tt>
+	 */
+	private void keep(int keepStart, int keepEnd, int baseEnd) {
+		if (keepStart > baseIndex) {
+			patch.addDeletion(new Deletion<T>(baseIndex + 1, keepStart - baseIndex));
+		}
+		for (Addition<T> addition : pendingAdditions) {
+			if (addition instanceof Copy) {
+				Copy<T> copy = (Copy<T>) addition;
+				patch.addAddition(new Copy<T>(copy.getAddedLines(), keepStart, copy.getSourceStart(),
+						copy.getLength()));
+			} else {
+				patch.addAddition(new Addition<T>(addition.getAddedLines(), keepStart, addition.getLength()));
+			}
+		}
+		pendingAdditions.clear();
+		baseIndex = Math.max(keepStart, keepEnd);
+	}
+
+	private static int hash(int[] ids, int start, int length) {
+		int hash = 0;
+		for (int i = start; i < start + length; i++) {
+			hash = hash * HASH_MULTIPLIER + ids[i];
+		}
+		return hash;
+	}
+
+	private static int mix(int hash) {
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		return hash;
+	}
+
+}
@@ -0,0 +1,85 @@
+package net.earthcomputer.meme.diff;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Compresses another patch file format with Deflate, in the zlib format. Text
+ * patch files in particular tend to shrink several times over
+ */
+public class DeflatePatchFileFormat implements IPatchFileFormat {
+
+	public static final int DEFAULT_BUFFER_SIZE = 65536;
+
+	private final IPatchFileFormat format;
+	private final int level;
+	private final int bufferSize;
+
+	/**
+	 * Creates a patch file format which compresses <tt>format</tt> with the
+	 * default compression level and buffer size
+	 */
+	public DeflatePatchFileFormat(IPatchFileFormat format) {
+		this(format, Deflater.DEFAULT_COMPRESSION, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Creates a patch file format which compresses <tt>format</tt> with the
+	 * given compression level (0-9, or -1 for the default), using buffers of
+	 * the given size
+	 */
+	public DeflatePatchFileFormat(IPatchFileFormat format, int level, int bufferSize) {
+		if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION) {
+			throw new IllegalArgumentException("Invalid compression level: " + level);
+		}
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("bufferSize <= 0");
+		}
+		this.format = format;
+		this.level = level;
+		this.bufferSize = bufferSize;
+	}
+
+	@Override
+	public String getName() {
+		return "deflate-" + format.getName();
+	}
+
+	@Override
+	public boolean supportsCopies() {
+		return format.supportsCopies();
+	}
+
+	@Override
+	public <T> PatchInfo<T> readPatch(InputStream in) throws InvalidPatchFormatException, IOException {
+		Inflater inflater = new Inflater();
+		try {
+			return format.readPatch(new InflaterInputStream(in, inflater, bufferSize));
+		} catch (ZipException e) {
+			throw new InvalidPatchFormatException("Invalid compressed data", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	@Override
+	public <T> void writePatch(PatchInfo<T> patch, OutputStream out) throws IOException {
+		Deflater deflater = new Deflater(level);
+		try {
+			DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out, deflater, bufferSize);
+			format.writePatch(patch, deflaterOut);
+			// Does nothing if the other format already closed the stream
+			deflaterOut.finish();
+			out.flush();
+		} finally {
+			deflater.end();
+		}
+	}
+
+}
@@ -0,0 +1,184 @@
+package net.earthcomputer.meme.diff;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import net.earthcomputer.meme.diff.Patch.Addition;
+import net.earthcomputer.meme.diff.Patch.Copy;
+import net.earthcomputer.meme.diff.Patch.Deletion;
+
+/**
+ * A binary patch file format like the {@link BinaryPatchFileFormat}, except
+ * that additions which are copied from elsewhere in the base file are stored as
+ * a reference to the copied lines rather than the lines themselves
+ */
+public class DeltaPatchFileFormat implements IPatchFileFormat {
+
+	// @formatter:off
+	private static final int MAGIC =
+			('M' << 24) |
+			('D' << 16) |
+			('L' << 8) |
+			('T' << 0);
+	// @formatter:on
+	private static final int VERSION = 0;
+
+	private static final int TYPE_LINES = 0;
+	private static final int TYPE_COPY = 1;
+
+	@Override
+	public String getName() {
+		return "delta";
+	}
+
+	@Override
+	public boolean supportsCopies() {
+		return true;
+	}
+
+	@Override
+	public <T> PatchInfo<T> readPatch(InputStream in) throws InvalidPatchFormatException, IOException {
+		DataInputStream data = new DataInputStream(in);
+		if (data.readInt() != MAGIC) {
+			throw new InvalidPatchFormatException("Invalid magic number");
+		}
+		int version = data.readUnsignedByte();
+		switch (version) {
+		case 0:
+			return readPatchVersion0(data);
+		default:
+			throw new InvalidPatchFormatException("Unsupported patch format version: " + version);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> PatchInfo<T> readPatchVersion0(DataInputStream data)
+			throws IOException, InvalidPatchFormatException {
+		PatchInfo<T> patch = new PatchInfo<T>();
+
+		patch.setFormat((IDiffFormat<T>) DiffFormats.getByName(data.readUTF()));
+		if (patch.getFormat() == null) {
+			throw new InvalidPatchFormatException("Invalid diff format");
+		}
+		patch.setPatch(new Patch<T>());
+
+		int numAdditions = Utils.readVarInt(data);
+		if (numAdditions < 0) {
+			throw new InvalidPatchFormatException("numAdditions < 0");
+		}
+		int prevStart = 0;
+		for (int i = 0; i < numAdditions; i++) {
+			int type = data.readUnsignedByte();
+			int start = prevStart + Utils.readSignedVarInt(data);
+			if (start < 0) {
+				throw new InvalidPatchFormatException("start < 0");
+			}
+			int len = Utils.readVarInt(data);
+			if (len < 0) {
+				throw new InvalidPatchFormatException("len < 0");
+			}
+			switch (type) {
+			case TYPE_LINES:
+				List<T> addedLines = readBlob(patch.getFormat(), len, data);
+				patch.getPatch().addAddition(new Addition<T>(addedLines, start, len));
+				break;
+			case TYPE_COPY:
+				int sourceStart = Utils.readVarInt(data);
+				if (sourceStart < 1) {
+					throw new InvalidPatchFormatException("sourceStart < 1");
+				}
+				if (sourceStart - 1 > Integer.MAX_VALUE - len) {
+					throw new InvalidPatchFormatException("Copy ends past the largest possible base file");
+				}
+				patch.getPatch().addAddition(new Copy<T>(null, start, sourceStart, len));
+				break;
+			default:
+				throw new InvalidPatchFormatException("Invalid addition type: " + type);
+			}
+			prevStart = start;
+		}
+
+		int numDeletions = Utils.readVarInt(data);
+		if (numDeletions < 0) {
+			throw new InvalidPatchFormatException("numDeletions < 0");
+		}
+		int prevEnd = 0;
+		for (int i = 0; i < numDeletions; i++) {
+			int start = prevEnd + Utils.readSignedVarInt(data);
+			if (start < 0) {
+				throw new InvalidPatchFormatException("start < 0");
+			}
+			int len = Utils.readVarInt(data);
+			if (len < 0) {
+				throw new InvalidPatchFormatException("len < 0");
+			}
+			patch.getPatch().addDeletion(new Deletion<T>(start, len));
+			prevEnd = start + len;
+		}
+
+		return patch;
+	}
+
+	private static <T> List<T> readBlob(IDiffFormat<T> format, int len, DataInputStream data)
+			throws IOException, InvalidPatchFormatException {
+		int blobSize = Utils.readVarInt(data);
+		if (blobSize < 0) {
+			throw new InvalidPatchFormatException("blobSize < 0");
+		}
+		ByteBuffer blobBuffer = ByteBuffer.wrap(Utils.readBytes(data, blobSize));
+		List<T> addedLines = format.deserializeElementsFromBlob(len, blobBuffer);
+		if (blobBuffer.hasRemaining()) {
+			throw new InvalidPatchFormatException("Addition has more data than lines");
+		}
+		return addedLines;
+	}
+
+	@Override
+	public <T> void writePatch(PatchInfo<T> patch, OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+
+		data.writeInt(MAGIC);
+		data.write(VERSION);
+
+		data.writeUTF(patch.getFormat().getName());
+
+		List<Addition<T>> additions = patch.getPatch().getAdditions();
+		Utils.writeVarInt(data, additions.size());
+		BlobOutputStream blob = new BlobOutputStream();
+		DataOutputStream blobData = new DataOutputStream(blob);
+		int prevStart = 0;
+		for (Addition<T> addition : additions) {
+			data.write(addition instanceof Copy ? TYPE_COPY : TYPE_LINES);
+			Utils.writeSignedVarInt(data, addition.getStart() - prevStart);
+			Utils.writeVarInt(data, addition.getLength());
+			if (addition instanceof Copy) {
+				Utils.writeVarInt(data, ((Copy<T>) addition).getSourceStart());
+			} else {
+				blob.reset();
+				patch.getFormat().serializeElementsToBlob(addition.getAddedLines(), blobData);
+				blobData.flush();
+				Utils.writeVarInt(data, blob.size());
+				blob.writeTo(data);
+			}
+			prevStart = addition.getStart();
+		}
+
+		List<Deletion<T>> deletions = patch.getPatch().getDeletions();
+		Utils.writeVarInt(data, deletions.size());
+		int prevEnd = 0;
+		for (Deletion<T> deletion : deletions) {
+			Utils.writeSignedVarInt(data, deletion.getStart() - prevEnd);
+			Utils.writeVarInt(data, deletion.getLength());
+			prevEnd = deletion.getStart() + deletion.getLength();
+		}
+
+		data.flush();
+		data.close();
+	}
+
+}
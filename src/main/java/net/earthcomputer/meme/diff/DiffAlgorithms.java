@@ -0,0 +1,52 @@
+package net.earthcomputer.meme.diff;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * This class contains static references to all the diff algorithms
+ */
+public class DiffAlgorithms {
+
+	private DiffAlgorithms() {
+	}
+
+	/**
+	 * Myers' algorithm, which finds the smallest possible patch
+	 */
+	public static final MyersDiffAlgorithm MYERS = new MyersDiffAlgorithm();
+	/**
+	 * The patience diff algorithm, which matches up lines which are unique in
+	 * both files first
+	 */
+	public static final PatienceDiffAlgorithm PATIENCE = new PatienceDiffAlgorithm();
+	/**
+	 * The histogram diff algorithm, which matches up the least frequent lines
+	 * first
+	 */
+	public static final HistogramDiffAlgorithm HISTOGRAM = new HistogramDiffAlgorithm();
+	/**
+	 * Myers' algorithm, run in parallel on the common pool between lines which
+	 * are unique in both files
+	 */
+	public static final ParallelDiffAlgorithm PARALLEL_MYERS = new ParallelDiffAlgorithm(MYERS,
+			ForkJoinPool.commonPool());
+
+	private static final IDiffAlgorithm[] ALGORITHMS = { MYERS, PATIENCE, HISTOGRAM, PARALLEL_MYERS };
+	private static final Map<String, IDiffAlgorithm> nameToAlgorithm = new HashMap<String, IDiffAlgorithm>();
+
+	static {
+		for (IDiffAlgorithm algorithm : ALGORITHMS) {
+			nameToAlgorithm.put(algorithm.getName(), algorithm);
+		}
+	}
+
+	/**
+	 * Gets a diff algorithm by its name
+	 */
+	public static IDiffAlgorithm getByName(String name) {
+		return nameToAlgorithm.get(name);
+	}
+
+}
@@ -0,0 +1,81 @@
+package net.earthcomputer.meme.diff;
+
+import net.earthcomputer.meme.diff.IPatchFileFormat.PatchInfo;
+
+/**
+ * Emits Java Flight Recorder events around reading files, diffing, patching,
+ * and reading and writing patch files, so that they show up in recordings.
+ * Each <tt>begin</tt> method returns the event to pass to the matching
+ * <tt>end</tt> method, or <tt>null</tt> if the event isn't being recorded, in
+ * which case ending it does nothing. An event which is never ended, because
+ * what it was measuring failed, isn't recorded. On a JVM without JFR, nothing
+ * is ever recorded
+ */
+class DiffEvents {
+
+	static final DiffEvents INSTANCE = create();
+
+	private static DiffEvents create() {
+		try {
+			return (DiffEvents) Class.forName("net.earthcomputer.meme.diff.JfrDiffEvents").getDeclaredConstructor()
+					.newInstance();
+		} catch (ReflectiveOperationException e) {
+			return new DiffEvents();
+		} catch (LinkageError e) {
+			// jdk.jfr isn't there
+			return new DiffEvents();
+		}
+	}
+
+	Object beginRead() {
+		return null;
+	}
+
+	/**
+	 * Ends reading a file and splitting it into elements
+	 */
+	void endRead(Object event, IDiffFormat<?> format, long bytes, int elements) {
+	}
+
+	Object beginDiff() {
+		return null;
+	}
+
+	/**
+	 * Ends computing a patch. The algorithm is <tt>null</tt> if copies were
+	 * detected instead
+	 */
+	void endDiff(Object event, IDiffFormat<?> format, IDiffAlgorithm algorithm, DiffStats stats) {
+	}
+
+	Object beginPatch() {
+		return null;
+	}
+
+	/**
+	 * Ends applying a patch
+	 */
+	void endPatch(Object event, IDiffFormat<?> format, boolean streaming, DiffStats stats) {
+	}
+
+	Object beginReadPatch() {
+		return null;
+	}
+
+	/**
+	 * Ends reading a patch file
+	 */
+	void endReadPatch(Object event, IPatchFileFormat patchFileFormat, PatchInfo<?> patch, long bytes) {
+	}
+
+	Object beginWritePatch() {
+		return null;
+	}
+
+	/**
+	 * Ends writing a patch file
+	 */
+	void endWritePatch(Object event, IPatchFileFormat patchFileFormat, PatchInfo<?> patch, long bytes) {
+	}
+
+}
@@ -4,7 +4,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -20,9 +20,9 @@ public class DiffFinder<T> {
 
 	@SuppressWarnings("unchecked")
 	public static <T> void main(String[] args) {
-		if (args.length < 3 || args.length > 5) {
+		if (args.length < 3 || args.length > 6) {
 			System.err.println(
-					"java -jar memediff.jar <base-file> <work-file> <output-patch-file> [patch-format] [patch-file-format]");
+					"java -jar memediff.jar <base-file> <work-file> <output-patch-file> [patch-format] [patch-file-format] [diff-algorithm]");
 			System.exit(1);
 			return;
 		}
@@ -64,9 +64,18 @@ public class DiffFinder<T> {
 			}
 		}
 
+		IDiffAlgorithm algorithm = DiffAlgorithms.MYERS;
+		if (args.length > 5) {
+			algorithm = DiffAlgorithms.getByName(args[5]);
+			if (algorithm == null) {
+				algorithm = DiffAlgorithms.MYERS;
+			}
+		}
+
 		try {
 			new DiffFinder.Builder<T>().setPatchFileFormat(patchFileFormat).setDiffFormat(patchFormat)
-					.setBaseFile(baseFile).setWorkFile(workFile).setOutputFile(patchFile).build().writePatchFile();
+					.setDiffAlgorithm(algorithm).setDetectCopies(patchFileFormat.supportsCopies()).setBaseFile(baseFile)
+					.setWorkFile(workFile).setOutputFile(patchFile).build().writePatchFile();
 		} catch (IOException e) {
 			System.err.println("An I/O error occurred");
 			e.printStackTrace();
@@ -77,146 +86,306 @@ public class DiffFinder<T> {
 
 	private final IPatchFileFormat patchFileFormat;
 	private final IDiffFormat<T> format;
+	private final IDiffAlgorithm algorithm;
+	private final boolean detectCopies;
+	private final int minCopyLength;
 	private final List<T> baseLines;
 	private final List<T> workLines;
 	private final OutputStream output;
-
-	private DiffFinder(IPatchFileFormat patchFileFormat, IDiffFormat<T> format, List<T> baseLines, List<T> workLines,
-			OutputStream output) {
+	private final IDiffListener listener;
+	// What it took to read the files, measured by the builder
+	private final long readNanos;
+	private final long bytesRead;
+	// Where to cache the patch once it's computed, or the patch which was
+	// already cached, in which case the lines are never read
+	private final PatchCache cache;
+	private final String cacheKey;
+	private final Patch<T> cachedPatch;
+	// Used in place of the base lines if it isn't null
+	private final BaseIndex baseIndex;
+
+	// The fingerprints of the work lines, to compare them with the base
+	// lines when using an index
+	private long[] workFingerprints;
+
+	private DiffFinder(IPatchFileFormat patchFileFormat, IDiffFormat<T> format, IDiffAlgorithm algorithm,
+			boolean detectCopies, int minCopyLength, List<T> baseLines, List<T> workLines, OutputStream output,
+			IDiffListener listener, long readNanos, long bytesRead, PatchCache cache, String cacheKey,
+			Patch<T> cachedPatch, BaseIndex baseIndex) {
 		this.patchFileFormat = patchFileFormat;
 		this.format = format;
+		this.algorithm = algorithm;
+		this.detectCopies = detectCopies;
+		this.minCopyLength = minCopyLength;
 		this.baseLines = baseLines;
 		this.workLines = workLines;
 		this.output = output;
+		this.listener = listener;
+		this.readNanos = readNanos;
+		this.bytesRead = bytesRead;
+		this.cache = cache;
+		this.cacheKey = cacheKey;
+		this.cachedPatch = cachedPatch;
+		this.baseIndex = baseIndex;
 	}
 
 	/**
 	 * Computes and writes the patch file
 	 */
 	public void writePatchFile() throws IOException {
-		Patch<T> patch = computePatch();
-
-		patchFileFormat.writePatch(new PatchInfo<T>(format, patch), output);
+		DiffStats stats = new DiffStats(format.getName());
+		Patch<T> patch = computePatch(stats);
+
+		Object event = DiffEvents.INSTANCE.beginWritePatch();
+		long writeStart = System.nanoTime();
+		CountingOutputStream out = new CountingOutputStream(output);
+		PatchInfo<T> patchInfo = new PatchInfo<T>(format, patch);
+		patchFileFormat.writePatch(patchInfo, out);
+		stats.setWriteNanos(System.nanoTime() - writeStart);
+		stats.setBytesWritten(out.getCount());
+		DiffEvents.INSTANCE.endWritePatch(event, patchFileFormat, patchInfo, out.getCount());
+
+		if (listener != null) {
+			listener.diffFinished(stats);
+		}
 	}
 
 	/**
 	 * Computes the patch and returns it
 	 */
 	public Patch<T> computePatch() {
-		Patch<T> patch = new Patch<T>();
-		List<T> lcs = lcs();
+		DiffStats stats = new DiffStats(format.getName());
+		Patch<T> patch = computePatch(stats);
+		if (listener != null) {
+			listener.diffFinished(stats);
+		}
+		return patch;
+	}
 
-		int indexInLcs = 0;
-		int indexInBase = 0;
-		int indexInWork = 0;
+	/**
+	 * Computes the patch between the given lines without going through a
+	 * builder, e.g. to diff just part of a file
+	 */
+	static <T> Patch<T> computePatch(IDiffFormat<T> format, IDiffAlgorithm algorithm, List<T> baseLines,
+			List<T> workLines, IDiffListener listener) {
+		return new DiffFinder<T>(PatchFileFormats.TEXT, format, algorithm, false, 1, baseLines, workLines, null,
+				listener, 0, 0, null, null, null, null).computePatch();
+	}
 
-		int currentAdditionStart = -1;
-		int currentAdditionLength = -1;
-		List<T> currentAddition = new ArrayList<T>();
-		int currentDeletionStart = -1;
-		int currentDeletionLength = -1;
+	private Patch<T> computePatch(DiffStats stats) {
+		stats.setReadNanos(readNanos);
+		stats.setBytesRead(bytesRead);
+		if (cachedPatch != null) {
+			stats.setPatch(cachedPatch);
+			return cachedPatch;
+		}
+		stats.setBaseElements(getBaseSize());
+		stats.setWorkElements(workLines.size());
+
+		// Measuring allocations isn't free, so only do it if anyone's
+		// listening
+		long allocatedBefore = listener == null ? -1 : Utils.getAllocatedBytes();
+		Object event = DiffEvents.INSTANCE.beginDiff();
+		long start = System.nanoTime();
+		Patch<T> patch = findChanges();
+		stats.setComputeNanos(System.nanoTime() - start);
+		if (allocatedBefore != -1) {
+			stats.setAllocatedBytes(Utils.getAllocatedBytes() - allocatedBefore);
+		}
+		stats.setPatch(patch);
+		DiffEvents.INSTANCE.endDiff(event, format, detectCopies ? null : algorithm, stats);
+		if (cache != null) {
+			cache.put(cacheKey, format, detectCopies, patch);
+		}
+		return patch;
+	}
 
-		while (indexInBase < baseLines.size() || indexInWork < workLines.size()) {
-			T lineInLcs = indexInLcs < lcs.size() ? lcs.get(indexInLcs) : null;
-			T lineInBase = indexInBase < baseLines.size() ? baseLines.get(indexInBase) : null;
-			T lineInWork = indexInWork < workLines.size() ? workLines.get(indexInWork) : null;
+	private Patch<T> findChanges() {
+		Patch<T> patch = new Patch<T>();
+		if (baseIndex != null) {
+			workFingerprints = BaseIndex.fingerprint(format, workLines);
+		}
+		int baseSize = getBaseSize();
+
+		// Trim the common prefix and suffix first, which is usually most of
+		// the file, so that the diff algorithm only sees the changed region
+		int start = 0;
+		int baseEnd = baseSize;
+		int workEnd = workLines.size();
+		while (start < baseEnd && start < workEnd && baseEqualsWork(start, start)) {
+			start++;
+		}
+		if (start == baseEnd && start == workEnd) {
+			// The base and work are identical
+			return patch;
+		}
+		while (baseEnd > start && workEnd > start && baseEqualsWork(baseEnd - 1, workEnd - 1)) {
+			baseEnd--;
+			workEnd--;
+		}
 
-			boolean baseEqualsLcs = lineInLcs == null ? lineInBase == null : lineInLcs.equals(lineInBase);
-			boolean workEqualsLcs = lineInLcs == null ? lineInWork == null : lineInLcs.equals(lineInWork);
+		if (detectCopies) {
+			CopyFinder.findChanges(format, baseLines, workLines, start, baseEnd, workEnd, minCopyLength, patch);
+			return patch;
+		}
 
-			boolean added = false, deleted = false;
+		// Give each distinct line in the changed region an integer ID, so that
+		// the diff algorithm only has to compare ints
+		int[] baseIds;
+		int[] workIds;
+		int idCount;
+		if (baseIndex == null) {
+			ElementInterner<T> interner = new ElementInterner<T>(format);
+			baseIds = interner.intern(baseLines, start, baseEnd);
+			workIds = interner.intern(workLines, start, workEnd);
+			idCount = interner.size();
+		} else {
+			FingerprintInterner interner = new FingerprintInterner();
+			baseIds = new int[baseEnd - start];
+			for (int i = start; i < baseEnd; i++) {
+				baseIds[i - start] = interner.intern(baseIndex.getFingerprint(i));
+			}
+			workIds = interner.intern(workFingerprints, start, workEnd);
+			idCount = interner.size();
+		}
+		boolean[] changedBase = new boolean[baseIds.length];
+		boolean[] changedWork = new boolean[workIds.length];
+		algorithm.computeChanges(baseIds, 0, baseIds.length, workIds, 0, workIds.length, idCount, changedBase,
+				changedWork);
 
-			if (baseEqualsLcs && workEqualsLcs) {
-				// No change
-				indexInLcs++;
-				indexInBase++;
-				indexInWork++;
-			} else if (baseEqualsLcs) {
-				// Addition
-				indexInWork++;
-				if (currentAdditionStart == -1) {
-					currentAdditionStart = indexInBase;
-					currentAdditionLength = 0;
-				}
-				currentAddition.add(lineInWork);
-				currentAdditionLength++;
-				added = true;
-			} else {
+		boolean[] deleted = new boolean[baseSize];
+		boolean[] added = new boolean[workLines.size()];
+		slideMatchesForward(start, baseIds, workIds, changedBase, deleted, added);
+
+		int indexInBase = start;
+		int indexInWork = start;
+
+		while (indexInBase < baseSize || indexInWork < workLines.size()) {
+			if (indexInBase < baseSize && deleted[indexInBase]) {
 				// Deletion
-				indexInBase++;
-				if (currentDeletionStart == -1) {
-					currentDeletionStart = indexInBase;
-					currentDeletionLength = 0;
+				int deletionStart = indexInBase;
+				while (indexInBase < baseSize && deleted[indexInBase]) {
+					indexInBase++;
 				}
-				currentDeletionLength++;
-				deleted = true;
+				patch.addDeletion(new Deletion<T>(deletionStart + 1, indexInBase - deletionStart));
 			}
 
-			if (!added && currentAdditionStart != -1) {
-				// Copy addition to patch
-				patch.addAddition(new Addition<T>(currentAddition, currentAdditionStart, currentAdditionLength));
-				currentAddition = new ArrayList<T>();
-				currentAdditionStart = -1;
-				currentAdditionLength = -1;
+			if (indexInWork < workLines.size() && added[indexInWork]) {
+				// Addition, which goes after any deletion at this point
+				int additionStart = indexInWork;
+				while (indexInWork < workLines.size() && added[indexInWork]) {
+					indexInWork++;
+				}
+				List<T> currentAddition = format.copyElements(workLines, additionStart, indexInWork);
+				patch.addAddition(new Addition<T>(currentAddition, indexInBase, currentAddition.size()));
 			}
 
-			if (!deleted && currentDeletionStart != -1) {
-				// Copy deletion to patch
-				patch.addDeletion(new Deletion<T>(currentDeletionStart, currentDeletionLength));
-				currentDeletionStart = -1;
-				currentDeletionLength = -1;
+			// No change
+			indexInBase++;
+			indexInWork++;
+		}
+
+		return patch;
+	}
+
+	/**
+	 * There are usually many ways of matching up the same common subsequence
+	 * between the base and work lines. This moves each match to the earliest
+	 * position it could appear in both lists, so that the patch doesn't depend
+	 * on which of these the diff algorithm happened to find. The matches
+	 * before <tt>start</tt> are already as early as they can be, and those in
+	 * the common suffix can only move until they catch up with themselves.
+	 * 
+	 * The changed region starting at <tt>start</tt> is given by the IDs and
+	 * the changes the diff algorithm found for it. The result is written into
+	 * <tt>deleted</tt> and <tt>added</tt>, which cover the whole of the base
+	 * and work lines
+	 */
+	private void slideMatchesForward(int start, int[] baseIds, int[] workIds, boolean[] changedBase,
+			boolean[] deleted, boolean[] added) {
+		int[] matches = new int[baseIds.length];
+		int matchCount = 0;
+		for (int i = 0; i < baseIds.length; i++) {
+			if (!changedBase[i]) {
+				matches[matchCount++] = i;
 			}
 		}
 
-		// Flush any non-copied addition and deletion to patch
-		if (currentAdditionStart != -1) {
-			patch.addAddition(new Addition<T>(currentAddition, currentAdditionStart, currentAdditionLength));
+		Arrays.fill(deleted, start, start + baseIds.length, true);
+		Arrays.fill(added, start, start + workIds.length, true);
+		int indexInBase = 0;
+		int indexInWork = 0;
+		for (int i = 0; i < matchCount; i++) {
+			int id = baseIds[matches[i]];
+			while (baseIds[indexInBase] != id) {
+				indexInBase++;
+			}
+			while (workIds[indexInWork] != id) {
+				indexInWork++;
+			}
+			deleted[start + indexInBase++] = false;
+			added[start + indexInWork++] = false;
 		}
 
-		if (currentDeletionStart != -1) {
-			patch.addDeletion(new Deletion<T>(currentDeletionStart, currentDeletionLength));
+		int baseEnd = start + baseIds.length;
+		int workEnd = start + workIds.length;
+		indexInBase += start;
+		indexInWork += start;
+		int suffixLength = getBaseSize() - baseEnd;
+		for (int i = 0; i < suffixLength; i++) {
+			if (indexInBase == baseEnd + i && indexInWork == workEnd + i) {
+				// Nothing after here can move
+				break;
+			}
+			int line = baseEnd + i;
+			deleted[line] = true;
+			added[workEnd + i] = true;
+			while (!baseEqualsBase(indexInBase, line)) {
+				indexInBase++;
+			}
+			while (!baseEqualsWork(line, indexInWork)) {
+				indexInWork++;
+			}
+			deleted[indexInBase++] = false;
+			added[indexInWork++] = false;
 		}
+	}
 
-		return patch;
+	private int getBaseSize() {
+		return baseIndex == null ? baseLines.size() : baseIndex.getElementCount();
 	}
 
-	private List<T> lcs() {
-		int[][] lengths = new int[baseLines.size() + 1][workLines.size() + 1];
-
-		// row 0 and column 0 are initialized to 0 already
-
-		for (int i = 0; i < baseLines.size(); i++)
-			for (int j = 0; j < workLines.size(); j++)
-				if (baseLines.get(i).equals(workLines.get(j)))
-					lengths[i + 1][j + 1] = lengths[i][j] + 1;
-				else
-					lengths[i + 1][j + 1] = Math.max(lengths[i + 1][j], lengths[i][j + 1]);
-
-		// read the substring out from the matrix
-		List<T> lcs = new ArrayList<T>();
-		for (int x = baseLines.size(), y = workLines.size(); x != 0 && y != 0;) {
-			if (lengths[x][y] == lengths[x - 1][y])
-				x--;
-			else if (lengths[x][y] == lengths[x][y - 1])
-				y--;
-			else {
-				assert baseLines.get(x - 1).equals(workLines.get(y - 1));
-				lcs.add(baseLines.get(x - 1));
-				x--;
-				y--;
-			}
+	private boolean baseEqualsWork(int indexInBase, int indexInWork) {
+		if (baseIndex == null) {
+			return format.elementsEqual(baseLines, indexInBase, workLines, indexInWork);
 		}
-		Collections.reverse(lcs);
+		return baseIndex.getFingerprint(indexInBase) == workFingerprints[indexInWork];
+	}
 
-		return lcs;
+	private boolean baseEqualsBase(int index1, int index2) {
+		if (baseIndex == null) {
+			return format.elementsEqual(baseLines, index1, baseLines, index2);
+		}
+		return baseIndex.getFingerprint(index1) == baseIndex.getFingerprint(index2);
 	}
 
 	public static class Builder<T> {
 		private IPatchFileFormat patchFileFormat = PatchFileFormats.TEXT;
 		private IDiffFormat<T> format;
+		private IDiffAlgorithm algorithm = DiffAlgorithms.MYERS;
+		private boolean detectCopies = false;
+		private int minCopyLength = 16;
 		private List<T> baseLines;
+		private File baseFile;
+		private BaseIndex baseIndex;
 		private List<T> workLines;
+		private File workFile;
 		private OutputStream output;
+		private IDiffListener listener;
+		private PatchCache cache;
+		private boolean compareFiles = true;
+		private long readNanos;
+		private long bytesRead;
 
 		public Builder<T> setPatchFileFormat(IPatchFileFormat format) {
 			this.patchFileFormat = format;
@@ -228,38 +397,91 @@ public class DiffFinder<T> {
 			return this;
 		}
 
+		public Builder<T> setDiffAlgorithm(IDiffAlgorithm algorithm) {
+			this.algorithm = algorithm;
+			return this;
+		}
+
+		/**
+		 * Sets whether to look for runs of lines which have been copied or
+		 * moved from elsewhere in the base file, and produce
+		 * {@link Patch.Copy}s for them. This is done instead of using the
+		 * diff algorithm, and is best used with a patch file format which
+		 * {@link IPatchFileFormat#supportsCopies() supports copies}
+		 */
+		public Builder<T> setDetectCopies(boolean detectCopies) {
+			this.detectCopies = detectCopies;
+			return this;
+		}
+
+		/**
+		 * Sets the shortest run of lines which will be detected as a copy
+		 */
+		public Builder<T> setMinCopyLength(int minCopyLength) {
+			this.minCopyLength = minCopyLength;
+			return this;
+		}
+
 		public Builder<T> setBaseLines(List<T> baseLines) {
 			this.baseLines = baseLines;
+			this.baseFile = null;
+			this.baseIndex = null;
 			return this;
 		}
 
 		public Builder<T> setBaseInputStream(InputStream baseInputStream) {
 			try {
-				return setBaseLines(format.readElementsFromBaseFile(baseInputStream));
+				return setBaseLines(readElements(baseInputStream));
 			} catch (IOException e) {
 				throw new NoSuchFileException("baseInputStream", e);
 			}
 		}
 
+		/**
+		 * Sets the base file. The file isn't read until {@link #build()}, so
+		 * that it can be skipped entirely if it's identical to the work file
+		 */
 		public Builder<T> setBaseFile(File file) {
-			return setBaseInputStream(Utils.getFileInputStream(file));
+			this.baseFile = file;
+			this.baseLines = null;
+			this.baseIndex = null;
+			return this;
+		}
+
+		/**
+		 * Sets the base file by its index, so that it doesn't have to be read.
+		 * The index must have been made with the same diff format. When
+		 * detecting copies, the base file is read as usual
+		 */
+		public Builder<T> setBaseIndex(BaseIndex baseIndex) {
+			this.baseIndex = baseIndex;
+			this.baseLines = null;
+			this.baseFile = null;
+			return this;
 		}
 
 		public Builder<T> setWorkLines(List<T> workLines) {
 			this.workLines = workLines;
+			this.workFile = null;
 			return this;
 		}
 
 		public Builder<T> setWorkInputStream(InputStream workInputStream) {
 			try {
-				return setWorkLines(format.readElementsFromBaseFile(workInputStream));
+				return setWorkLines(readElements(workInputStream));
 			} catch (IOException e) {
 				throw new NoSuchFileException("workInputStream", e);
 			}
 		}
 
+		/**
+		 * Sets the work file. The file isn't read until {@link #build()}, so
+		 * that it can be skipped entirely if it's identical to the base file
+		 */
 		public Builder<T> setWorkFile(File file) {
-			return setWorkInputStream(Utils.getFileInputStream(file));
+			this.workFile = file;
+			this.workLines = null;
+			return this;
 		}
 
 		public Builder<T> setOutputStream(OutputStream output) {
@@ -271,6 +493,54 @@ public class DiffFinder<T> {
 			return setOutputStream(Utils.getFileOutputStream(output));
 		}
 
+		/**
+		 * Sets the listener which is told the measurements of each patch
+		 * computed by the diff finder
+		 */
+		public Builder<T> setListener(IDiffListener listener) {
+			this.listener = listener;
+			return this;
+		}
+
+		/**
+		 * Sets the cache to look the patch up in, and to put it in once it's
+		 * computed. The cache is only used if the base and work files are
+		 * given as files, and when detecting copies, only if the patch file
+		 * format supports copies
+		 */
+		public Builder<T> setPatchCache(PatchCache cache) {
+			this.cache = cache;
+			return this;
+		}
+
+		/**
+		 * Sets whether to compare the base and work files before reading
+		 * them, to skip identical files. Turned off by callers which have
+		 * already compared them
+		 */
+		Builder<T> setCompareFiles(boolean compareFiles) {
+			this.compareFiles = compareFiles;
+			return this;
+		}
+
+		private List<T> readElements(InputStream in) throws IOException {
+			Object event = DiffEvents.INSTANCE.beginRead();
+			long start = System.nanoTime();
+			CountingInputStream countingIn = new CountingInputStream(in);
+			List<T> elements = format.readElementsFromBaseFile(countingIn);
+			readNanos += System.nanoTime() - start;
+			bytesRead += countingIn.getCount();
+			DiffEvents.INSTANCE.endRead(event, format, countingIn.getCount(), elements.size());
+			return elements;
+		}
+
+		private List<T> readElements(File file) {
+			Object event = DiffEvents.INSTANCE.beginRead();
+			List<T> elements = Utils.readElements(format, file);
+			DiffEvents.INSTANCE.endRead(event, format, file.length(), elements.size());
+			return elements;
+		}
+
 		public DiffFinder<T> build() {
 			if (patchFileFormat == null) {
 				throw new IllegalStateException("patchFileFormat cannot be null");
@@ -278,16 +548,88 @@ public class DiffFinder<T> {
 			if (format == null) {
 				throw new IllegalStateException("format not set");
 			}
-			if (baseLines == null) {
+			if (algorithm == null) {
+				throw new IllegalStateException("algorithm cannot be null");
+			}
+			if (minCopyLength < 1) {
+				throw new IllegalStateException("minCopyLength must be positive");
+			}
+			if (baseLines == null && baseFile == null && baseIndex == null) {
 				throw new IllegalStateException("baseLines not set");
 			}
-			if (workLines == null) {
+			if (baseIndex != null && !baseIndex.getDiffFormat().equals(format.getName())) {
+				throw new IllegalStateException("baseIndex was made with a different diff format");
+			}
+			if (workLines == null && workFile == null) {
 				throw new IllegalStateException("workLines not set");
 			}
 			if (output == null) {
 				throw new IllegalStateException("output not set");
 			}
-			return new DiffFinder<T>(patchFileFormat, format, baseLines, workLines, output);
+
+			// Locals, so that the builder can be built from again
+			List<T> baseLines = this.baseLines;
+			File baseFile = this.baseFile;
+			BaseIndex baseIndex = this.baseIndex;
+			List<T> workLines = this.workLines;
+			long readNanos = this.readNanos;
+			long bytesRead = this.bytesRead;
+
+			if (baseIndex != null && detectCopies) {
+				// Copies need the base lines themselves
+				baseFile = baseIndex.getBaseFile();
+				baseIndex = null;
+			}
+			// The base file, even if it isn't going to be read
+			File baseSource = baseIndex == null ? baseFile : baseIndex.getBaseFile();
+
+			if (compareFiles && baseSource != null && workFile != null) {
+				long start = System.nanoTime();
+				if (Utils.contentEquals(baseSource, workFile)) {
+					// The patch is going to be empty whatever the diff format
+					// is, so don't bother reading the files in at all
+					List<T> noLines = Collections.emptyList();
+					return new DiffFinder<T>(patchFileFormat, format, algorithm, detectCopies, minCopyLength,
+							noLines, noLines, output, listener, readNanos + System.nanoTime() - start,
+							bytesRead + baseSource.length() + workFile.length(), null, null, null, null);
+				}
+				readNanos += System.nanoTime() - start;
+			}
+			String cacheKey = null;
+			// Copies read back from the cache don't have their lines, so can
+			// only be written in a format which supports copies
+			if (cache != null && baseSource != null && workFile != null
+					&& (!detectCopies || patchFileFormat.supportsCopies())) {
+				long start = System.nanoTime();
+				cacheKey = baseIndex == null
+						? PatchCache.getKey(baseSource, workFile, format, algorithm, detectCopies, minCopyLength)
+						: PatchCache.getKey(baseIndex.getBaseHash(), workFile, format, algorithm, detectCopies,
+								minCopyLength);
+				Patch<T> cachedPatch = cache.get(cacheKey, format, detectCopies);
+				readNanos += System.nanoTime() - start;
+				if (cachedPatch != null) {
+					// Neither file needs to be read
+					List<T> noLines = Collections.emptyList();
+					return new DiffFinder<T>(patchFileFormat, format, algorithm, detectCopies, minCopyLength,
+							noLines, noLines, output, listener, readNanos,
+							bytesRead + baseSource.length() + workFile.length(), null, null, cachedPatch, null);
+				}
+			}
+			if (baseFile != null) {
+				long start = System.nanoTime();
+				baseLines = readElements(baseFile);
+				readNanos += System.nanoTime() - start;
+				bytesRead += baseFile.length();
+			}
+			if (workFile != null) {
+				long start = System.nanoTime();
+				workLines = readElements(workFile);
+				readNanos += System.nanoTime() - start;
+				bytesRead += workFile.length();
+			}
+			return new DiffFinder<T>(patchFileFormat, format, algorithm, detectCopies, minCopyLength, baseLines,
+					workLines, output, listener, readNanos, bytesRead, cacheKey == null ? null : cache, cacheKey,
+					null, baseIndex);
 		}
 	}
 
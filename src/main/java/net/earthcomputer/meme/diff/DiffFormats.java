@@ -1,5 +1,6 @@
 package net.earthcomputer.meme.diff;
 
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -15,6 +16,11 @@ public class DiffFormats {
 	 * The normal diff format
 	 */
 	public static final NormalDiffFormat NORMAL = new NormalDiffFormat();
+	/**
+	 * The normal diff format, but keeping the line ending of each line. Always
+	 * uses UTF-8, so that patches don't depend on the platform
+	 */
+	public static final NormalDiffFormat EXACT = new NormalDiffFormat(StandardCharsets.UTF_8, true);
 	/**
 	 * The java diff format
 	 */
@@ -24,7 +30,7 @@ public class DiffFormats {
 	 */
 	public static final ByteDiffFormat BYTE = new ByteDiffFormat();
 
-	private static final IDiffFormat<?>[] FORMATS = { NORMAL, JAVA, BYTE };
+	private static final IDiffFormat<?>[] FORMATS = { NORMAL, EXACT, JAVA, BYTE };
 	private static final Map<String, IDiffFormat<?>> nameToFormat = new HashMap<String, IDiffFormat<?>>();
 
 	static {
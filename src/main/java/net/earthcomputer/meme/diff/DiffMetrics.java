@@ -0,0 +1,178 @@
+package net.earthcomputer.meme.diff;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A listener which keeps a histogram of each measurement across all the runs
+ * it's told about, so that they can be exported at the end of a batch job.
+ * The histograms are named after the type of run and the measurement, e.g.
+ * <tt>diff.computeNanos</tt> or <tt>patch.bytesWritten</tt>. Can be shared
+ * between threads
+ */
+public class DiffMetrics implements IDiffListener {
+
+	private final ConcurrentSkipListMap<String, Histogram> histograms = new ConcurrentSkipListMap<String, Histogram>();
+
+	@Override
+	public void diffFinished(DiffStats stats) {
+		record("diff", stats);
+	}
+
+	@Override
+	public void patchFinished(DiffStats stats) {
+		record("patch", stats);
+	}
+
+	private void record(String type, DiffStats stats) {
+		getHistogram(type + ".readNanos").record(stats.getReadNanos());
+		getHistogram(type + ".computeNanos").record(stats.getComputeNanos());
+		getHistogram(type + ".writeNanos").record(stats.getWriteNanos());
+		getHistogram(type + ".bytesRead").record(stats.getBytesRead());
+		getHistogram(type + ".bytesWritten").record(stats.getBytesWritten());
+		getHistogram(type + ".allocatedBytes").record(stats.getAllocatedBytes());
+		getHistogram(type + ".baseElements").record(stats.getBaseElements());
+		getHistogram(type + ".workElements").record(stats.getWorkElements());
+		getHistogram(type + ".editDistance").record(stats.getEditDistance());
+		getHistogram(type + ".hunkCount").record(stats.getHunkCount());
+	}
+
+	/**
+	 * Returns the histogram with the given name, creating it if it doesn't
+	 * exist yet
+	 */
+	public Histogram getHistogram(String name) {
+		Histogram histogram = histograms.get(name);
+		if (histogram == null) {
+			Histogram newHistogram = new Histogram();
+			histogram = histograms.putIfAbsent(name, newHistogram);
+			if (histogram == null) {
+				histogram = newHistogram;
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * Returns all the histograms, sorted by name
+	 */
+	public SortedMap<String, Histogram> getHistograms() {
+		return Collections.unmodifiableSortedMap(histograms);
+	}
+
+	/**
+	 * Prints a line for each histogram with its count, min, median, 99th
+	 * percentile, max and mean
+	 */
+	public void print(PrintStream out) {
+		for (SortedMap.Entry<String, Histogram> entry : histograms.entrySet()) {
+			Histogram histogram = entry.getValue();
+			if (histogram.getCount() != 0) {
+				out.printf("%-24s count=%d min=%d p50=%d p99=%d max=%d mean=%.1f%n", entry.getKey(),
+						histogram.getCount(), histogram.getMin(), histogram.getPercentile(50),
+						histogram.getPercentile(99), histogram.getMax(), histogram.getMean());
+			}
+		}
+	}
+
+	/**
+	 * A histogram of non-negative values, with a bucket for each power of
+	 * two. Negative values, which are measurements that weren't taken, are
+	 * ignored. The count, sum, min and max are exact
+	 */
+	public static class Histogram {
+		// Bucket 0 holds 0, and bucket i holds values from 2^(i-1) to 2^i - 1
+		public static final int BUCKET_COUNT = 64;
+
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong sum = new AtomicLong();
+		private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+		private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+		public void record(long value) {
+			if (value < 0) {
+				return;
+			}
+			buckets.incrementAndGet(getBucket(value));
+			count.incrementAndGet();
+			sum.addAndGet(value);
+			long oldMin;
+			while (value < (oldMin = min.get()) && !min.compareAndSet(oldMin, value)) {
+			}
+			long oldMax;
+			while (value > (oldMax = max.get()) && !max.compareAndSet(oldMax, value)) {
+			}
+		}
+
+		private static int getBucket(long value) {
+			return 64 - Long.numberOfLeadingZeros(value);
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		public long getSum() {
+			return sum.get();
+		}
+
+		/**
+		 * Returns the smallest value, or 0 if there are none
+		 */
+		public long getMin() {
+			return count.get() == 0 ? 0 : min.get();
+		}
+
+		/**
+		 * Returns the largest value, or 0 if there are none
+		 */
+		public long getMax() {
+			return count.get() == 0 ? 0 : max.get();
+		}
+
+		public double getMean() {
+			long count = this.count.get();
+			return count == 0 ? 0 : (double) sum.get() / count;
+		}
+
+		/**
+		 * Returns the number of values in the given bucket
+		 */
+		public long getBucketCount(int bucket) {
+			return buckets.get(bucket);
+		}
+
+		/**
+		 * Returns an upper bound of the given percentile (0-100), which is
+		 * at most twice the real value
+		 */
+		public long getPercentile(double percentile) {
+			long count = this.count.get();
+			if (count == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(percentile / 100 * count);
+			long seen = 0;
+			for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+				seen += buckets.get(bucket);
+				if (seen >= rank) {
+					long upperBound = bucket == 0 ? 0 : (1L << bucket) - 1;
+					return Math.max(Math.min(upperBound, getMax()), getMin());
+				}
+			}
+			return getMax();
+		}
+
+		@Override
+		public String toString() {
+			return "Histogram{count=" + getCount() + ", min=" + getMin() + ", max=" + getMax() + ", mean="
+					+ getMean() + "}";
+		}
+	}
+
+}
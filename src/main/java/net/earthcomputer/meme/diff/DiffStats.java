@@ -0,0 +1,189 @@
+package net.earthcomputer.meme.diff;
+
+import java.util.List;
+
+import net.earthcomputer.meme.diff.Patch.Addition;
+import net.earthcomputer.meme.diff.Patch.Change;
+import net.earthcomputer.meme.diff.Patch.Deletion;
+
+/**
+ * The measurements of a single run of a {@link DiffFinder} or {@link Patcher},
+ * given to an {@link IDiffListener}. Times are in nanoseconds, and anything
+ * which wasn't measured is -1
+ */
+public class DiffStats {
+
+	private final String diffFormat;
+	private long readNanos = -1;
+	private long computeNanos = -1;
+	private long writeNanos = -1;
+	private long bytesRead = -1;
+	private long bytesWritten = -1;
+	private long allocatedBytes = -1;
+	private int baseElements = -1;
+	private int workElements = -1;
+	private int editDistance = -1;
+	private int hunkCount = -1;
+
+	DiffStats(String diffFormat) {
+		this.diffFormat = diffFormat;
+	}
+
+	/**
+	 * Returns the name of the diff format
+	 */
+	public String getDiffFormat() {
+		return diffFormat;
+	}
+
+	/**
+	 * Returns the time spent reading the files and splitting them into
+	 * elements, and reading the patch file when patching. This is 0 if
+	 * everything was given already in memory. When the base file is streamed,
+	 * reading it is counted in the compute time instead
+	 */
+	public long getReadNanos() {
+		return readNanos;
+	}
+
+	/**
+	 * Returns the time spent in the diff itself, or applying the patch
+	 */
+	public long getComputeNanos() {
+		return computeNanos;
+	}
+
+	/**
+	 * Returns the time spent writing the patch file, or the work file. This
+	 * isn't measured if the patch or work file was only computed
+	 */
+	public long getWriteNanos() {
+		return writeNanos;
+	}
+
+	/**
+	 * Returns the number of bytes read from files and input streams
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * Returns the number of bytes of patch file or work file written. This
+	 * isn't measured if the patch or work file was only computed
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * Returns the number of bytes the thread allocated while computing, which
+	 * is mostly the scratch space of the diff. Allocations made by other
+	 * threads, for example by a parallel diff algorithm, aren't counted. This
+	 * isn't measured if the JVM doesn't support it
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	public int getBaseElements() {
+		return baseElements;
+	}
+
+	public int getWorkElements() {
+		return workElements;
+	}
+
+	/**
+	 * Returns the total number of lines deleted and added by the patch
+	 */
+	public int getEditDistance() {
+		return editDistance;
+	}
+
+	/**
+	 * Returns the number of separate places in the base file that the patch
+	 * changes. A deletion followed immediately by an addition counts as one
+	 */
+	public int getHunkCount() {
+		return hunkCount;
+	}
+
+	void setReadNanos(long readNanos) {
+		this.readNanos = readNanos;
+	}
+
+	void setComputeNanos(long computeNanos) {
+		this.computeNanos = computeNanos;
+	}
+
+	void setWriteNanos(long writeNanos) {
+		this.writeNanos = writeNanos;
+	}
+
+	void setBytesRead(long bytesRead) {
+		this.bytesRead = bytesRead;
+	}
+
+	void setBytesWritten(long bytesWritten) {
+		this.bytesWritten = bytesWritten;
+	}
+
+	void setAllocatedBytes(long allocatedBytes) {
+		this.allocatedBytes = allocatedBytes;
+	}
+
+	void setBaseElements(int baseElements) {
+		this.baseElements = baseElements;
+	}
+
+	void setWorkElements(int workElements) {
+		this.workElements = workElements;
+	}
+
+	/**
+	 * Sets the edit distance and hunk count from the given patch
+	 */
+	<T> void setPatch(Patch<T> patch) {
+		List<Addition<T>> additions = patch.getAdditions();
+		List<Deletion<T>> deletions = patch.getDeletions();
+		int editDistance = 0;
+		int hunkCount = 0;
+		int additionIndex = 0;
+		int deletionIndex = 0;
+		int lastEnd = -1;
+		while (additionIndex < additions.size() || deletionIndex < deletions.size()) {
+			// Go through the changes in order of the number of base lines
+			// before them
+			Change<T> change;
+			int position;
+			int end;
+			if (deletionIndex == deletions.size() || (additionIndex != additions.size()
+					&& additions.get(additionIndex).getStart() < deletions.get(deletionIndex).getStart() - 1)) {
+				change = additions.get(additionIndex++);
+				position = change.getStart();
+				end = position;
+			} else {
+				change = deletions.get(deletionIndex++);
+				position = change.getStart() - 1;
+				end = position + change.getLength();
+			}
+			editDistance += change.getLength();
+			if (position != lastEnd) {
+				hunkCount++;
+			}
+			lastEnd = end;
+		}
+		this.editDistance = editDistance;
+		this.hunkCount = hunkCount;
+	}
+
+	@Override
+	public String toString() {
+		return "DiffStats{diffFormat=" + diffFormat + ", readNanos=" + readNanos + ", computeNanos=" + computeNanos
+				+ ", writeNanos=" + writeNanos + ", bytesRead=" + bytesRead + ", bytesWritten=" + bytesWritten
+				+ ", allocatedBytes=" + allocatedBytes + ", baseElements=" + baseElements + ", workElements="
+				+ workElements + ", editDistance=" + editDistance + ", hunkCount=" + hunkCount + "}";
+	}
+
+}
@@ -0,0 +1,116 @@
+package net.earthcomputer.meme.diff;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Gives each distinct line an integer ID, so that the diff algorithms can
+ * compare lines by comparing ints. IDs are allocated in order starting from 0.
+ * Lines are hashed and compared using the diff format.
+ * 
+ * Rather than keeping hold of a line for each ID, the interner remembers where
+ * it first saw it, so that lists which create their lines on demand (such as
+ * {@link LineList}) don't end up with all their lines in memory at once
+ */
+class ElementInterner<T> {
+
+	private final IDiffFormat<T> format;
+
+	private final List<List<T>> lists = new ArrayList<List<T>>();
+
+	// Indexed by ID. The list and index where each line was first seen
+	private int[] firstLists = new int[16];
+	private int[] firstIndexes = new int[16];
+	private int[] hashes = new int[16];
+	private int size;
+
+	// Open addressing hash table of ID + 1, or 0 for an empty slot
+	private int[] table = new int[32];
+
+	public ElementInterner(IDiffFormat<T> format) {
+		this.format = format;
+	}
+
+	/**
+	 * Returns the number of distinct lines which have been interned so far
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Interns the lines between <tt>start</tt> (inclusive) and <tt>end</tt>
+	 * (exclusive), returning their IDs
+	 */
+	public int[] intern(List<T> lines, int start, int end) {
+		int listIndex = lists.size();
+		lists.add(lines);
+		int[] ids = new int[end - start];
+		for (int i = start; i < end; i++) {
+			ids[i - start] = internElement(lines, listIndex, i);
+		}
+		return ids;
+	}
+
+	/**
+	 * Returns the ID of the line at the given index, allocating a new one if
+	 * no equal line has been interned before
+	 */
+	private int internElement(List<T> lines, int listIndex, int index) {
+		int hash = mix(format.hashElement(lines, index));
+		int mask = table.length - 1;
+		int slot = hash & mask;
+		int entry;
+		while ((entry = table[slot]) != 0) {
+			int id = entry - 1;
+			if (hashes[id] == hash
+					&& format.elementsEqual(lists.get(firstLists[id]), firstIndexes[id], lines, index)) {
+				return id;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		int id = size++;
+		if (id == hashes.length) {
+			firstLists = Arrays.copyOf(firstLists, id * 2);
+			firstIndexes = Arrays.copyOf(firstIndexes, id * 2);
+			hashes = Arrays.copyOf(hashes, id * 2);
+		}
+		firstLists[id] = listIndex;
+		firstIndexes[id] = index;
+		hashes[id] = hash;
+		table[slot] = id + 1;
+
+		// Keep the load factor below a half
+		if (size * 2 > table.length) {
+			rehash();
+		}
+		return id;
+	}
+
+	private void rehash() {
+		int[] newTable = new int[table.length * 2];
+		int mask = newTable.length - 1;
+		for (int id = 0; id < size; id++) {
+			int slot = hashes[id] & mask;
+			while (newTable[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			newTable[slot] = id + 1;
+		}
+		table = newTable;
+	}
+
+	/**
+	 * Spreads the bits of a hash code, as many hash codes only differ in their
+	 * high bits
+	 */
+	private static int mix(int hash) {
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		return hash;
+	}
+
+}
@@ -0,0 +1,93 @@
+package net.earthcomputer.meme.diff;
+
+import java.util.Arrays;
+
+/**
+ * Gives each distinct line an integer ID from its fingerprint, like
+ * {@link ElementInterner} but for lines which are only known by their
+ * fingerprints, such as those in a {@link BaseIndex}. Also used to give the
+ * few distinct IDs in part of a file new IDs of their own. IDs are allocated
+ * in order starting from 0
+ */
+class FingerprintInterner {
+
+	// Indexed by ID
+	private long[] fingerprints = new long[16];
+	private int size;
+
+	// Open addressing hash table of ID + 1, or 0 for an empty slot
+	private int[] table = new int[32];
+
+	/**
+	 * Returns the number of distinct lines which have been interned so far
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Interns the lines with the given fingerprints, returning their IDs
+	 */
+	public int[] intern(long[] fingerprints, int start, int end) {
+		int[] ids = new int[end - start];
+		for (int i = start; i < end; i++) {
+			ids[i - start] = intern(fingerprints[i]);
+		}
+		return ids;
+	}
+
+	/**
+	 * Returns the ID of the line with the given fingerprint, allocating a new
+	 * one if it hasn't been interned before
+	 */
+	public int intern(long fingerprint) {
+		int mask = table.length - 1;
+		int slot = hash(fingerprint) & mask;
+		int entry;
+		while ((entry = table[slot]) != 0) {
+			if (fingerprints[entry - 1] == fingerprint) {
+				return entry - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		int id = size++;
+		if (id == fingerprints.length) {
+			fingerprints = Arrays.copyOf(fingerprints, id * 2);
+		}
+		fingerprints[id] = fingerprint;
+		table[slot] = id + 1;
+
+		// Keep the load factor below a half
+		if (size * 2 > table.length) {
+			rehash();
+		}
+		return id;
+	}
+
+	private void rehash() {
+		int[] newTable = new int[table.length * 2];
+		int mask = newTable.length - 1;
+		for (int id = 0; id < size; id++) {
+			int slot = hash(fingerprints[id]) & mask;
+			while (newTable[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			newTable[slot] = id + 1;
+		}
+		table = newTable;
+	}
+
+	/**
+	 * Spreads the bits of a fingerprint. Real fingerprints are already well
+	 * mixed, but the IDs renumbered from part of a file are small and dense
+	 */
+	private static int hash(long fingerprint) {
+		int hash = (int) (fingerprint ^ (fingerprint >>> 32));
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		return hash;
+	}
+
+}
@@ -0,0 +1,163 @@
+package net.earthcomputer.meme.diff;
+
+/**
+ * The histogram diff algorithm, an extension of the patience diff algorithm
+ * which also copes with lines that aren't unique. The longest common run of
+ * lines containing the least frequently occurring base line is matched up,
+ * and the regions either side of it are diffed recursively. Regions where all
+ * lines occur too often to be worth considering are handed over to Myers'
+ * algorithm
+ */
+public class HistogramDiffAlgorithm implements IDiffAlgorithm {
+
+	// Lines which occur more often than this in the base aren't considered
+	private static final int MAX_CHAIN_LENGTH = 64;
+	// Beyond this depth, just give up on looking for common runs
+	private static final int MAX_DEPTH = 64;
+
+	@Override
+	public String getName() {
+		return "histogram";
+	}
+
+	@Override
+	public void computeChanges(int[] baseLines, int baseStart, int baseEnd, int[] workLines, int workStart,
+			int workEnd, int idCount, boolean[] deleted, boolean[] added) {
+		new Search(baseLines, workLines, idCount, deleted, added).diff(baseStart, baseEnd, workStart, workEnd, 0);
+	}
+
+	private static class Search {
+		private final int[] base;
+		private final int[] work;
+		private final int idCount;
+		private final boolean[] deleted;
+		private final boolean[] added;
+
+		// The histogram of the base range currently being searched, indexed by
+		// ID. Equal lines are chained together through nextOccurrences, which
+		// is indexed by base index. Cleared again after each search
+		private final int[] counts;
+		private final int[] firstOccurrences;
+		private final int[] lastOccurrences;
+		private final int[] nextOccurrences;
+
+		// The best common run found by the last call to findCommonRun
+		private int runBaseStart, runWorkStart, runLength;
+
+		Search(int[] base, int[] work, int idCount, boolean[] deleted, boolean[] added) {
+			this.base = base;
+			this.work = work;
+			this.idCount = idCount;
+			this.deleted = deleted;
+			this.added = added;
+			this.counts = new int[idCount];
+			this.firstOccurrences = new int[idCount];
+			this.lastOccurrences = new int[idCount];
+			this.nextOccurrences = new int[base.length];
+		}
+
+		void diff(int baseStart, int baseEnd, int workStart, int workEnd, int depth) {
+			// Skip the common prefix and suffix, they never contain any
+			// changes
+			while (baseStart < baseEnd && workStart < workEnd && base[baseStart] == work[workStart]) {
+				baseStart++;
+				workStart++;
+			}
+			while (baseStart < baseEnd && workStart < workEnd && base[baseEnd - 1] == work[workEnd - 1]) {
+				baseEnd--;
+				workEnd--;
+			}
+
+			if (baseStart == baseEnd || workStart == workEnd) {
+				for (int i = baseStart; i < baseEnd; i++) {
+					deleted[i] = true;
+				}
+				for (int j = workStart; j < workEnd; j++) {
+					added[j] = true;
+				}
+				return;
+			}
+
+			if (depth >= MAX_DEPTH || !findCommonRun(baseStart, baseEnd, workStart, workEnd)) {
+				DiffAlgorithms.MYERS.computeChanges(base, baseStart, baseEnd, work, workStart, workEnd, idCount,
+						deleted, added);
+				return;
+			}
+
+			// Copy the run into local variables, the recursive calls overwrite
+			// it
+			int runBaseStart = this.runBaseStart, runWorkStart = this.runWorkStart, runLength = this.runLength;
+			diff(baseStart, runBaseStart, workStart, runWorkStart, depth + 1);
+			diff(runBaseStart + runLength, baseEnd, runWorkStart + runLength, workEnd, depth + 1);
+		}
+
+		/**
+		 * Finds the longest common run of lines whose rarest line occurs the
+		 * least number of times in the base range. Returns <tt>false</tt> if
+		 * every line occurs too often
+		 */
+		private boolean findCommonRun(int baseStart, int baseEnd, int workStart, int workEnd) {
+			// Build the histogram of the base lines
+			for (int i = baseStart; i < baseEnd; i++) {
+				int id = base[i];
+				if (counts[id]++ == 0) {
+					firstOccurrences[id] = i;
+				} else {
+					nextOccurrences[lastOccurrences[id]] = i;
+				}
+				lastOccurrences[id] = i;
+				nextOccurrences[i] = -1;
+			}
+
+			boolean found = false;
+			int bestCount = MAX_CHAIN_LENGTH;
+			for (int j = workStart; j < workEnd;) {
+				int nextJ = j + 1;
+				int id = work[j];
+				if (counts[id] != 0 && counts[id] <= bestCount) {
+					for (int i = firstOccurrences[id]; i != -1; i = nextOccurrences[i]) {
+						int runBaseStart = i, runWorkStart = j;
+						int runBaseEnd = i + 1, runWorkEnd = j + 1;
+						int count = counts[id];
+
+						// Extend the run in both directions
+						while (runBaseStart > baseStart && runWorkStart > workStart
+								&& base[runBaseStart - 1] == work[runWorkStart - 1]) {
+							runBaseStart--;
+							runWorkStart--;
+							count = Math.min(count, counts[base[runBaseStart]]);
+						}
+						while (runBaseEnd < baseEnd && runWorkEnd < workEnd && base[runBaseEnd] == work[runWorkEnd]) {
+							count = Math.min(count, counts[base[runBaseEnd]]);
+							runBaseEnd++;
+							runWorkEnd++;
+						}
+
+						// There's no point looking at work lines which are in
+						// this run again
+						if (nextJ < runWorkEnd) {
+							nextJ = runWorkEnd;
+						}
+
+						int length = runBaseEnd - runBaseStart;
+						if (!found || this.runLength < length || count < bestCount) {
+							this.runBaseStart = runBaseStart;
+							this.runWorkStart = runWorkStart;
+							this.runLength = length;
+							bestCount = count;
+							found = true;
+						}
+					}
+				}
+				j = nextJ;
+			}
+
+			for (int i = baseStart; i < baseEnd; i++) {
+				counts[base[i]] = 0;
+			}
+
+			return found;
+		}
+	}
+
+}
@@ -0,0 +1,28 @@
+package net.earthcomputer.meme.diff;
+
+/**
+ * A diff algorithm, responsible for deciding which lines have been deleted
+ * from the base file and which have been added in the work file
+ */
+public interface IDiffAlgorithm {
+
+	/**
+	 * Returns the name of this diff algorithm, e.g. "myers", "patience",
+	 * "histogram"
+	 */
+	String getName();
+
+	/**
+	 * Compares the base lines between <tt>baseStart</tt> (inclusive) and
+	 * <tt>baseEnd</tt> (exclusive) with the work lines between
+	 * <tt>workStart</tt> and <tt>workEnd</tt>. Each line is given as an ID
+	 * between 0 (inclusive) and <tt>idCount</tt> (exclusive), where equal lines
+	 * have equal IDs. Sets <tt>deleted[i]</tt> to <tt>true</tt> for each base
+	 * line <tt>i</tt> that has been deleted, and <tt>added[j]</tt> to
+	 * <tt>true</tt> for each work line <tt>j</tt> that has been added. Entries
+	 * outside of the given ranges are left untouched
+	 */
+	void computeChanges(int[] baseLines, int baseStart, int baseEnd, int[] workLines, int workStart, int workEnd,
+			int idCount, boolean[] deleted, boolean[] added);
+
+}
@@ -6,6 +6,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Scanner;
 
@@ -19,6 +22,39 @@ public interface IDiffFormat<T> {
 	 */
 	String getName();
 
+	/**
+	 * Returns a hash code for the given line, which must be consistent with
+	 * {@link #elementsEqual(Object, Object)}. Used to give each distinct line
+	 * an integer ID before diffing
+	 */
+	default int hashElement(T element) {
+		return element.hashCode();
+	}
+
+	/**
+	 * Returns whether the two given lines are equal
+	 */
+	default boolean elementsEqual(T a, T b) {
+		return a.equals(b);
+	}
+
+	/**
+	 * Returns a hash code for the line at the given index, the same as
+	 * {@link #hashElement(Object)} would return for it. Formats whose lists
+	 * can hash their lines without creating them override this
+	 */
+	default int hashElement(List<T> elements, int index) {
+		return hashElement(elements.get(index));
+	}
+
+	/**
+	 * Returns whether the lines at the given indexes of the two lists are
+	 * equal, the same as {@link #elementsEqual(Object, Object)} would
+	 */
+	default boolean elementsEqual(List<T> elements1, int index1, List<T> elements2, int index2) {
+		return elementsEqual(elements1.get(index1), elements2.get(index2));
+	}
+
 	/**
 	 * Reads all the lines from the given input stream and returns them
 	 */
@@ -26,12 +62,44 @@ public interface IDiffFormat<T> {
 		return readElementsFromPatchFile(new Scanner(in), Integer.MAX_VALUE);
 	}
 
+	/**
+	 * Reads all the lines from the given buffer, which is usually a memory
+	 * mapped file, and returns them
+	 */
+	default List<T> readElementsFromBaseFile(ByteBuffer buffer) throws IOException {
+		return readElementsFromBaseFile(new ByteBufferInputStream(buffer));
+	}
+
+	/**
+	 * Returns an iterator which reads the lines from the given input stream
+	 * as they are needed, used when patching without reading the whole base
+	 * file into memory. By default, all the lines are read straight away
+	 */
+	default Iterator<T> streamElementsFromBaseFile(InputStream in) throws IOException {
+		return readElementsFromBaseFile(in).iterator();
+	}
+
 	/**
 	 * Reads the given amount of lines from the given scanner, used in the
 	 * text-based patch file format
 	 */
 	List<T> readElementsFromPatchFile(Scanner in, int count);
 
+	/**
+	 * Reads the given amount of lines from the lines of a text-based patch
+	 * file, taking only as many of the lines as it needs. The lines have been
+	 * split at <tt>\n</tt>, <tt>\r\n</tt> and <tt>\r</tt> only, the same as
+	 * base files are. By default, each element is read from a line of its own
+	 * using {@link #readElementsFromPatchFile(Scanner, int)}
+	 */
+	default List<T> readElementsFromPatchFile(Iterator<String> lines, int count) {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < count && lines.hasNext(); i++) {
+			text.append(lines.next()).append('\n');
+		}
+		return readElementsFromPatchFile(new Scanner(text.toString()), count);
+	}
+
 	/**
 	 * Writes all the given elements to the output stream
 	 */
@@ -42,6 +110,39 @@ public interface IDiffFormat<T> {
 		pw.close();
 	}
 
+	/**
+	 * Writes the given elements to the output stream without closing it, used
+	 * when the work file is written a chunk at a time. The chunks are followed
+	 * by a call to {@link #writeElementsToWorkFile(List, OutputStream)} with
+	 * the last chunk, and the result must be the same as if all the elements
+	 * had been written by that
+	 */
+	default void appendElementsToWorkFile(List<T> elements, OutputStream out) throws IOException {
+		PrintWriter pw = new PrintWriter(out);
+		printElementsToPatchFile(elements, pw);
+		pw.flush();
+	}
+
+	/**
+	 * Returns a new modifiable list containing the lines between
+	 * <tt>fromIndex</tt> (inclusive) and <tt>toIndex</tt> (exclusive) of the
+	 * given list. Used for the lines added by a patch, and for building up the
+	 * work file when patching
+	 */
+	default List<T> copyElements(List<T> elements, int fromIndex, int toIndex) {
+		return new ArrayList<T>(elements.subList(fromIndex, toIndex));
+	}
+
+	/**
+	 * Appends the lines between <tt>fromIndex</tt> (inclusive) and
+	 * <tt>toIndex</tt> (exclusive) of <tt>elements</tt> to <tt>dest</tt>,
+	 * which was created by {@link #copyElements(List, int, int)}. Used for
+	 * building up the work file when patching
+	 */
+	default void appendElements(List<T> dest, List<T> elements, int fromIndex, int toIndex) {
+		dest.addAll(elements.subList(fromIndex, toIndex));
+	}
+
 	/**
 	 * Prints all the given elements to the given PrintWriter. Used in the
 	 * text-based patch file format
@@ -58,4 +159,45 @@ public interface IDiffFormat<T> {
 	 */
 	T deserializeElement(DataInputStream data) throws IOException;
 
+	/**
+	 * Serialize all the given lines one after the other. Used in the binary
+	 * patch file format
+	 */
+	default void serializeElements(List<T> elements, DataOutputStream data) throws IOException {
+		for (T element : elements) {
+			serializeElement(element, data);
+		}
+	}
+
+	/**
+	 * Deserialize the given number of lines. Used in the binary patch file
+	 * format
+	 */
+	default List<T> deserializeElements(int count, DataInputStream data) throws IOException {
+		List<T> elements = new ArrayList<T>(count);
+		for (int i = 0; i < count; i++) {
+			elements.add(deserializeElement(data));
+		}
+		return elements;
+	}
+
+	/**
+	 * Serialize all the given lines into a blob. Unlike
+	 * {@link #serializeElements(List, DataOutputStream)}, there should be no
+	 * limit on the size of a line. Used in version 1 of the binary patch file
+	 * format
+	 */
+	default void serializeElementsToBlob(List<T> elements, DataOutputStream blob) throws IOException {
+		serializeElements(elements, blob);
+	}
+
+	/**
+	 * Deserialize the given number of lines from the remaining bytes of a blob
+	 * written by {@link #serializeElementsToBlob(List, DataOutputStream)}.
+	 * Used in version 1 of the binary patch file format
+	 */
+	default List<T> deserializeElementsFromBlob(int count, ByteBuffer blob) throws IOException {
+		return deserializeElements(count, new DataInputStream(new ByteBufferInputStream(blob)));
+	}
+
 }
@@ -0,0 +1,25 @@
+package net.earthcomputer.meme.diff;
+
+/**
+ * Receives the measurements of each run of a {@link DiffFinder} or
+ * {@link Patcher}, for finding out where the time goes. A listener which is
+ * shared between diff finders or patchers running in parallel is called from
+ * multiple threads at once
+ */
+public interface IDiffListener {
+
+	/**
+	 * Called when a diff finder has computed a patch, and written it if it
+	 * was writing a patch file
+	 */
+	default void diffFinished(DiffStats stats) {
+	}
+
+	/**
+	 * Called when a patcher has computed the work file, and written it if it
+	 * was writing a work file
+	 */
+	default void patchFinished(DiffStats stats) {
+	}
+
+}
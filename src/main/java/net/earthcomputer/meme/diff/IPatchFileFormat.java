@@ -24,6 +24,15 @@ public interface IPatchFileFormat {
 	 */
 	<T> void writePatch(PatchInfo<T> patch, OutputStream out) throws IOException;
 
+	/**
+	 * Returns whether this patch file format can store a
+	 * {@link Patch.Copy} without storing the copied lines. If not, the copied
+	 * lines are stored like any other addition
+	 */
+	default boolean supportsCopies() {
+		return false;
+	}
+
 	/**
 	 * Contains the information that should be stored in a patch file
 	 */
@@ -0,0 +1,291 @@
+package net.earthcomputer.meme.diff;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import net.earthcomputer.meme.diff.Patch.Addition;
+import net.earthcomputer.meme.diff.Patch.Copy;
+import net.earthcomputer.meme.diff.Patch.Deletion;
+
+/**
+ * Keeps the patch between a base file and a work file up to date while the
+ * work file is being edited, e.g. in an editor which shows the changes as they
+ * are typed. Each edit only re-diffs the region it touches: the edited lines,
+ * together with any changes in the patch which overlap or touch them, bounded
+ * on either side by unchanged lines. The rest of the patch is kept as it is,
+ * since the positions of its changes are relative to the base file, which
+ * doesn't change. So the cost of an edit depends on the size of the changes
+ * around it rather than the size of the file.
+ *
+ * The patch is always correct, but may differ from the one a
+ * {@link DiffFinder} would find from scratch, since the diff algorithm only
+ * sees part of the files. Copies aren't detected. Not thread safe
+ */
+public class IncrementalDiffFinder<T> {
+
+	private final IDiffFormat<T> format;
+	private final IDiffAlgorithm algorithm;
+	private final List<T> baseLines;
+	private final List<T> workLines;
+	private final IDiffListener listener;
+	private Patch<T> patch;
+
+	private IncrementalDiffFinder(IDiffFormat<T> format, IDiffAlgorithm algorithm, List<T> baseLines,
+			List<T> workLines, Patch<T> patch, IDiffListener listener) {
+		this.format = format;
+		this.algorithm = algorithm;
+		this.baseLines = baseLines;
+		this.workLines = workLines;
+		this.listener = listener;
+		this.patch = patch == null ? DiffFinder.computePatch(format, algorithm, baseLines, workLines, listener)
+				: withoutCopies(patch);
+	}
+
+	/**
+	 * Returns the given patch with its copies turned into additions of the
+	 * lines they copy, since a re-diffed region never has copies in it
+	 */
+	private Patch<T> withoutCopies(Patch<T> patch) {
+		Patch<T> newPatch = new Patch<T>();
+		for (Addition<T> addition : patch.getAdditions()) {
+			if (addition instanceof Copy) {
+				int sourceStart = ((Copy<T>) addition).getSourceStart() - 1;
+				addition = new Addition<T>(
+						format.copyElements(baseLines, sourceStart, sourceStart + addition.getLength()),
+						addition.getStart(), addition.getLength());
+			}
+			newPatch.addAddition(addition);
+		}
+		for (Deletion<T> deletion : patch.getDeletions()) {
+			newPatch.addDeletion(deletion);
+		}
+		return newPatch;
+	}
+
+	/**
+	 * Returns the patch from the base lines to the current work lines
+	 */
+	public Patch<T> getPatch() {
+		return patch;
+	}
+
+	/**
+	 * Returns the current work lines
+	 */
+	public List<T> getWorkLines() {
+		return Collections.unmodifiableList(workLines);
+	}
+
+	/**
+	 * Replaces the work lines between <tt>start</tt> (inclusive) and
+	 * <tt>end</tt> (exclusive) with the given lines, and returns the updated
+	 * patch
+	 */
+	public Patch<T> replaceWorkLines(int start, int end, List<T> lines) {
+		if (start < 0 || end < start || end > workLines.size()) {
+			throw new IndexOutOfBoundsException(
+					"start = " + start + ", end = " + end + ", size = " + workLines.size());
+		}
+		if (start == end && lines.isEmpty()) {
+			return patch;
+		}
+
+		// Go through the changes in the order the patcher applies them,
+		// keeping track of where each one is in the work file. The changes
+		// before the edit which don't touch it are kept
+		List<Addition<T>> additions = patch.getAdditions();
+		List<Deletion<T>> deletions = patch.getDeletions();
+		Patch<T> newPatch = new Patch<T>();
+		int additionIndex = 0;
+		int deletionIndex = 0;
+		// How many more lines the work file has than the base file so far
+		int sizeChange = 0;
+		int regionWorkStart = start;
+		int regionWorkEnd = end;
+		int regionBaseStart = -1;
+		while (additionIndex < additions.size() || deletionIndex < deletions.size()) {
+			int nextAddition = additionIndex < additions.size() ? additions.get(additionIndex).getStart()
+					: Integer.MAX_VALUE;
+			int nextDeletion = deletionIndex < deletions.size() ? deletions.get(deletionIndex).getStart() - 1
+					: Integer.MAX_VALUE;
+			boolean isAddition = nextAddition <= nextDeletion;
+			int workStart = Math.min(nextAddition, nextDeletion) + sizeChange;
+			int workEnd = workStart + (isAddition ? additions.get(additionIndex).getLength() : 0);
+
+			if (regionBaseStart == -1) {
+				if (workEnd < start) {
+					// Before the edit
+					if (isAddition) {
+						Addition<T> addition = additions.get(additionIndex++);
+						sizeChange += addition.getLength();
+						newPatch.addAddition(addition);
+					} else {
+						Deletion<T> deletion = deletions.get(deletionIndex++);
+						sizeChange -= deletion.getLength();
+						newPatch.addDeletion(deletion);
+					}
+					continue;
+				}
+				regionWorkStart = Math.min(start, workStart);
+				regionBaseStart = regionWorkStart - sizeChange;
+			}
+			if (workStart > end) {
+				// After the edit
+				break;
+			}
+
+			// Part of the region to re-diff
+			regionWorkEnd = Math.max(regionWorkEnd, workEnd);
+			if (isAddition) {
+				sizeChange += additions.get(additionIndex++).getLength();
+			} else {
+				sizeChange -= deletions.get(deletionIndex++).getLength();
+			}
+		}
+		if (regionBaseStart == -1) {
+			// All the changes are before the edit
+			regionBaseStart = regionWorkStart - sizeChange;
+		}
+		int regionBaseEnd = regionWorkEnd - sizeChange;
+
+		List<T> editedLines = workLines.subList(start, end);
+		editedLines.clear();
+		editedLines.addAll(lines);
+		regionWorkEnd += lines.size() - (end - start);
+
+		Patch<T> regionPatch = DiffFinder.computePatch(format, algorithm,
+				baseLines.subList(regionBaseStart, regionBaseEnd), workLines.subList(regionWorkStart, regionWorkEnd),
+				listener);
+		for (Addition<T> addition : regionPatch.getAdditions()) {
+			newPatch.addAddition(new Addition<T>(addition.getAddedLines(), addition.getStart() + regionBaseStart,
+					addition.getLength()));
+		}
+		for (Deletion<T> deletion : regionPatch.getDeletions()) {
+			newPatch.addDeletion(new Deletion<T>(deletion.getStart() + regionBaseStart, deletion.getLength()));
+		}
+
+		// The changes after the edit are kept
+		for (; additionIndex < additions.size(); additionIndex++) {
+			newPatch.addAddition(additions.get(additionIndex));
+		}
+		for (; deletionIndex < deletions.size(); deletionIndex++) {
+			newPatch.addDeletion(deletions.get(deletionIndex));
+		}
+
+		patch = newPatch;
+		return patch;
+	}
+
+	/**
+	 * Replaces all the work lines with the given ones, and returns the updated
+	 * patch. Only the lines between the common prefix and suffix of the old
+	 * and new work lines are treated as edited
+	 */
+	public Patch<T> setWorkLines(List<T> newWorkLines) {
+		int start = 0;
+		int oldEnd = workLines.size();
+		int newEnd = newWorkLines.size();
+		while (start < oldEnd && start < newEnd
+				&& format.elementsEqual(workLines, start, newWorkLines, start)) {
+			start++;
+		}
+		while (oldEnd > start && newEnd > start
+				&& format.elementsEqual(workLines, oldEnd - 1, newWorkLines, newEnd - 1)) {
+			oldEnd--;
+			newEnd--;
+		}
+		return replaceWorkLines(start, oldEnd, newWorkLines.subList(start, newEnd));
+	}
+
+	public static class Builder<T> {
+		private IDiffFormat<T> format;
+		private IDiffAlgorithm algorithm = DiffAlgorithms.MYERS;
+		private List<T> baseLines;
+		private List<T> workLines;
+		private Patch<T> patch;
+		private IDiffListener listener;
+
+		public Builder<T> setDiffFormat(IDiffFormat<T> format) {
+			this.format = format;
+			return this;
+		}
+
+		public Builder<T> setDiffAlgorithm(IDiffAlgorithm algorithm) {
+			this.algorithm = algorithm;
+			return this;
+		}
+
+		public Builder<T> setBaseLines(List<T> baseLines) {
+			this.baseLines = baseLines;
+			return this;
+		}
+
+		/**
+		 * Sets the base file, which is read straight away. The diff format
+		 * must be set first
+		 */
+		public Builder<T> setBaseFile(File file) {
+			if (format == null) {
+				throw new IllegalStateException("format not set");
+			}
+			return setBaseLines(Utils.readElements(format, file));
+		}
+
+		/**
+		 * Sets the initial work lines. They are copied, so later changes to
+		 * the given list aren't seen
+		 */
+		public Builder<T> setWorkLines(List<T> workLines) {
+			this.workLines = workLines;
+			return this;
+		}
+
+		/**
+		 * Sets the work file, which is read straight away. The diff format
+		 * must be set first
+		 */
+		public Builder<T> setWorkFile(File file) {
+			if (format == null) {
+				throw new IllegalStateException("format not set");
+			}
+			return setWorkLines(Utils.readElements(format, file));
+		}
+
+		/**
+		 * Sets the patch from the base lines to the initial work lines, e.g.
+		 * one kept from a previous run, so that it doesn't have to be computed
+		 */
+		public Builder<T> setPatch(Patch<T> patch) {
+			this.patch = patch;
+			return this;
+		}
+
+		/**
+		 * Sets the listener which is told the measurements of each region
+		 * which is re-diffed
+		 */
+		public Builder<T> setListener(IDiffListener listener) {
+			this.listener = listener;
+			return this;
+		}
+
+		public IncrementalDiffFinder<T> build() {
+			if (format == null) {
+				throw new IllegalStateException("format not set");
+			}
+			if (algorithm == null) {
+				throw new IllegalStateException("algorithm cannot be null");
+			}
+			if (baseLines == null) {
+				throw new IllegalStateException("baseLines not set");
+			}
+			if (workLines == null) {
+				throw new IllegalStateException("workLines not set");
+			}
+			return new IncrementalDiffFinder<T>(format, algorithm, baseLines,
+					format.copyElements(workLines, 0, workLines.size()), patch, listener);
+		}
+	}
+
+}
@@ -0,0 +1,425 @@
+package net.earthcomputer.meme.diff;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+import net.earthcomputer.meme.diff.Patch.Addition;
+import net.earthcomputer.meme.diff.Patch.Deletion;
+
+/**
+ * A binary patch file format which stores the changes in order of where they
+ * are in the base file, followed by an index of where each change is in the
+ * patch file. A patch file in this format can be opened with
+ * {@link #open(File)}, and the changes to one region of the base file read
+ * without reading the rest of the patch
+ */
+public class IndexedPatchFileFormat implements IPatchFileFormat {
+
+	// @formatter:off
+	private static final int MAGIC =
+			('M' << 24) |
+			('I' << 16) |
+			('D' << 8) |
+			('X' << 0);
+	// @formatter:on
+	private static final int VERSION = 0;
+
+	private static final int TYPE_ADDITION = 0;
+	private static final int TYPE_DELETION = 1;
+
+	// The size of each entry in the index, an int and a long
+	private static final int INDEX_ENTRY_SIZE = 12;
+	// The index offset and the magic number at the end of the file
+	private static final int FOOTER_SIZE = 12;
+
+	@Override
+	public String getName() {
+		return "indexed";
+	}
+
+	@Override
+	public <T> PatchInfo<T> readPatch(InputStream in) throws InvalidPatchFormatException, IOException {
+		DataInputStream data = new DataInputStream(in);
+		if (data.readInt() != MAGIC) {
+			throw new InvalidPatchFormatException("Invalid magic number");
+		}
+		int version = data.readUnsignedByte();
+		switch (version) {
+		case 0:
+			return readPatchVersion0(data);
+		default:
+			throw new InvalidPatchFormatException("Unsupported patch format version: " + version);
+		}
+	}
+
+	private static <T> PatchInfo<T> readPatchVersion0(DataInputStream data)
+			throws IOException, InvalidPatchFormatException {
+		PatchInfo<T> patch = new PatchInfo<T>();
+		patch.setFormat(IndexedPatchFileFormat.<T> readDiffFormat(data));
+		patch.setPatch(new Patch<T>());
+
+		int numChanges = data.readInt();
+		if (numChanges < 0) {
+			throw new InvalidPatchFormatException("numChanges < 0");
+		}
+		for (int i = 0; i < numChanges; i++) {
+			int type = data.readUnsignedByte();
+			int start = data.readInt();
+			int len = data.readInt();
+			List<T> addedLines = null;
+			if (type == TYPE_ADDITION) {
+				int blobSize = data.readInt();
+				if (blobSize < 0) {
+					throw new InvalidPatchFormatException("blobSize < 0");
+				}
+				addedLines = readAddedLines(patch.getFormat(), len, ByteBuffer.wrap(Utils.readBytes(data, blobSize)));
+			}
+			addChange(patch.getPatch(), type, start, len, addedLines);
+		}
+
+		// The index isn't needed when reading the whole patch
+		return patch;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> IDiffFormat<T> readDiffFormat(DataInputStream data)
+			throws IOException, InvalidPatchFormatException {
+		IDiffFormat<T> format = (IDiffFormat<T>) DiffFormats.getByName(data.readUTF());
+		if (format == null) {
+			throw new InvalidPatchFormatException("Invalid diff format");
+		}
+		return format;
+	}
+
+	private static <T> List<T> readAddedLines(IDiffFormat<T> format, int len, ByteBuffer blob)
+			throws IOException, InvalidPatchFormatException {
+		if (len < 0) {
+			throw new InvalidPatchFormatException("len < 0");
+		}
+		List<T> addedLines = format.deserializeElementsFromBlob(len, blob);
+		if (blob.hasRemaining()) {
+			throw new InvalidPatchFormatException("Addition has more data than lines");
+		}
+		return addedLines;
+	}
+
+	private static <T> void addChange(Patch<T> patch, int type, int start, int len, List<T> addedLines)
+			throws InvalidPatchFormatException {
+		if (start < 0) {
+			throw new InvalidPatchFormatException("start < 0");
+		}
+		if (len < 0) {
+			throw new InvalidPatchFormatException("len < 0");
+		}
+		switch (type) {
+		case TYPE_ADDITION:
+			patch.addAddition(new Addition<T>(addedLines, start, len));
+			break;
+		case TYPE_DELETION:
+			patch.addDeletion(new Deletion<T>(start, len));
+			break;
+		default:
+			throw new InvalidPatchFormatException("Invalid change type: " + type);
+		}
+	}
+
+	@Override
+	public <T> void writePatch(PatchInfo<T> patch, OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+
+		data.writeInt(MAGIC);
+		data.write(VERSION);
+
+		data.writeUTF(patch.getFormat().getName());
+
+		List<Addition<T>> additions = patch.getPatch().getAdditions();
+		List<Deletion<T>> deletions = patch.getPatch().getDeletions();
+		int numChanges = additions.size() + deletions.size();
+		data.writeInt(numChanges);
+
+		// Merge the additions and deletions in order of position, keeping
+		// track of where each one is written for the index
+		int[] positions = new int[numChanges];
+		long[] offsets = new long[numChanges];
+		long offset = data.size();
+		BlobOutputStream blob = new BlobOutputStream();
+		DataOutputStream blobData = new DataOutputStream(blob);
+		int additionIndex = 0;
+		int deletionIndex = 0;
+		for (int i = 0; i < numChanges; i++) {
+			boolean addition = deletionIndex == deletions.size() || (additionIndex != additions.size()
+					&& getPosition(additions.get(additionIndex)) < getPosition(deletions.get(deletionIndex)));
+			positions[i] = addition ? getPosition(additions.get(additionIndex))
+					: getPosition(deletions.get(deletionIndex));
+			if (i != 0 && positions[i] < positions[i - 1]) {
+				throw new IllegalArgumentException("Changes must be in order of their start index");
+			}
+			offsets[i] = offset;
+
+			if (addition) {
+				Addition<T> change = additions.get(additionIndex++);
+				blob.reset();
+				patch.getFormat().serializeElementsToBlob(change.getAddedLines(), blobData);
+				blobData.flush();
+				data.write(TYPE_ADDITION);
+				data.writeInt(change.getStart());
+				data.writeInt(change.getLength());
+				data.writeInt(blob.size());
+				blob.writeTo(data);
+				offset += 13 + blob.size();
+			} else {
+				Deletion<T> change = deletions.get(deletionIndex++);
+				data.write(TYPE_DELETION);
+				data.writeInt(change.getStart());
+				data.writeInt(change.getLength());
+				offset += 9;
+			}
+		}
+
+		for (int i = 0; i < numChanges; i++) {
+			data.writeInt(positions[i]);
+			data.writeLong(offsets[i]);
+		}
+		data.writeLong(offset);
+		data.writeInt(MAGIC);
+
+		data.flush();
+		data.close();
+	}
+
+	/**
+	 * Returns the number of base lines before the given change. This is what
+	 * the changes are sorted and indexed by
+	 */
+	private static int getPosition(Patch.Change<?> change) {
+		return change instanceof Deletion ? change.getStart() - 1 : change.getStart();
+	}
+
+	/**
+	 * Opens a patch file in this format for random access, by memory mapping
+	 * it. The file must not be changed while the patch is in use
+	 */
+	public static <T> IndexedPatch<T> open(File file) throws InvalidPatchFormatException {
+		ByteBuffer buffer = Utils.mapFile(file);
+		if (buffer == null) {
+			throw new InvalidPatchFormatException("Patch file is too large to open for random access");
+		}
+		try {
+			return open(buffer);
+		} catch (IOException e) {
+			throw new NoSuchFileException(file.getAbsolutePath(), e);
+		}
+	}
+
+	/**
+	 * Opens the patch file in the remaining bytes of the given buffer for
+	 * random access
+	 */
+	public static <T> IndexedPatch<T> open(ByteBuffer buffer) throws InvalidPatchFormatException, IOException {
+		buffer = buffer.slice();
+		if (buffer.limit() < FOOTER_SIZE || buffer.getInt(0) != MAGIC
+				|| buffer.getInt(buffer.limit() - 4) != MAGIC) {
+			throw new InvalidPatchFormatException("Invalid magic number");
+		}
+		int version = buffer.get(4) & 0xff;
+		if (version != VERSION) {
+			throw new InvalidPatchFormatException("Unsupported patch format version: " + version);
+		}
+
+		ByteBuffer header = buffer.duplicate();
+		header.position(5);
+		DataInputStream data = new DataInputStream(new ByteBufferInputStream(header));
+		IDiffFormat<T> format = readDiffFormat(data);
+		int numChanges = data.readInt();
+
+		long indexOffset = buffer.getLong(buffer.limit() - FOOTER_SIZE);
+		if (numChanges < 0 || indexOffset < 0
+				|| indexOffset + (long) numChanges * INDEX_ENTRY_SIZE != buffer.limit() - FOOTER_SIZE) {
+			throw new InvalidPatchFormatException("Invalid index");
+		}
+		return new IndexedPatch<T>(buffer, format, numChanges, (int) indexOffset);
+	}
+
+	/**
+	 * A patch file in this format which has been opened for random access.
+	 * Can be read from multiple threads at once
+	 */
+	public static class IndexedPatch<T> {
+		private final ByteBuffer buffer;
+		private final IDiffFormat<T> format;
+		private final int numChanges;
+		private final int indexOffset;
+
+		private IndexedPatch(ByteBuffer buffer, IDiffFormat<T> format, int numChanges, int indexOffset) {
+			this.buffer = buffer;
+			this.format = format;
+			this.numChanges = numChanges;
+			this.indexOffset = indexOffset;
+		}
+
+		public IDiffFormat<T> getFormat() {
+			return format;
+		}
+
+		/**
+		 * Returns the number of additions and deletions in the patch
+		 */
+		public int getChangeCount() {
+			return numChanges;
+		}
+
+		/**
+		 * Reads the whole patch
+		 */
+		public Patch<T> readPatch() throws InvalidPatchFormatException, IOException {
+			return readChanges(0, numChanges);
+		}
+
+		/**
+		 * Reads the changes with between <tt>baseStart</tt> (inclusive) and
+		 * <tt>baseEnd</tt> (exclusive) base lines before them. A deletion
+		 * which starts in this range is read in full, even if it goes past
+		 * the end. The changes keep their original start indexes
+		 */
+		public Patch<T> readRange(int baseStart, int baseEnd) throws InvalidPatchFormatException, IOException {
+			return readChanges(findFirstChange(baseStart), findFirstChange(baseEnd));
+		}
+
+		/**
+		 * Returns the index of the first change at or after the given
+		 * position, by binary searching the index
+		 */
+		private int findFirstChange(int position) {
+			int low = 0;
+			int high = numChanges;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (getIndexedPosition(middle) < position) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * Returns the position of the change with the given index
+		 */
+		private int getIndexedPosition(int change) {
+			return buffer.getInt(indexOffset + change * INDEX_ENTRY_SIZE);
+		}
+
+		/**
+		 * Applies the changes to the region of the base file between
+		 * <tt>baseStart</tt> (inclusive) and <tt>baseEnd</tt> (exclusive) of
+		 * the given base lines, and returns the work lines which the region
+		 * becomes. Applying each of a run of consecutive regions and joining
+		 * the results gives the whole work file, so the regions can be applied
+		 * in parallel. A deletion which starts in an earlier region still
+		 * deletes the lines it covers in this one, and the additions at the
+		 * end of the base file belong to the last region
+		 */
+		public List<T> applyRange(List<T> baseLines, int baseStart, int baseEnd)
+				throws InvalidPatchFormatException, IOException {
+			if (baseStart < 0 || baseEnd < baseStart || baseEnd > baseLines.size()) {
+				throw new IndexOutOfBoundsException(
+						"baseStart = " + baseStart + ", baseEnd = " + baseEnd + ", size = " + baseLines.size());
+			}
+			boolean lastRegion = baseEnd == baseLines.size();
+			int from = findFirstChange(baseStart);
+			int to = lastRegion ? numChanges : findFirstChange(baseEnd);
+
+			// Changes can't overlap, so the only deletion which can carry on
+			// into this region is the last one before it
+			int indexInBase = baseStart;
+			for (int i = from - 1; i >= 0 && getIndexedPosition(i) == getIndexedPosition(from - 1); i--) {
+				List<Deletion<T>> deletions = readChanges(i, i + 1).getDeletions();
+				if (!deletions.isEmpty()) {
+					Deletion<T> deletion = deletions.get(0);
+					indexInBase = Math.max(indexInBase,
+							Math.min(deletion.getStart() - 1 + deletion.getLength(), baseEnd));
+					break;
+				}
+			}
+
+			// Apply the changes in the region in order, the same way the
+			// patcher does
+			Patch<T> patch = readChanges(from, to);
+			List<Addition<T>> additions = patch.getAdditions();
+			List<Deletion<T>> deletions = patch.getDeletions();
+			List<T> workLines = format.copyElements(Collections.<T> emptyList(), 0, 0);
+			int additionIndex = 0;
+			int deletionIndex = 0;
+			while (additionIndex < additions.size() || deletionIndex < deletions.size()) {
+				int nextAddition = additionIndex < additions.size() ? additions.get(additionIndex).getStart()
+						: Integer.MAX_VALUE;
+				int nextDeletion = deletionIndex < deletions.size() ? deletions.get(deletionIndex).getStart() - 1
+						: Integer.MAX_VALUE;
+				int next = Math.min(nextAddition, nextDeletion);
+				if (next < indexInBase) {
+					throw new InvalidPatchFormatException("The changes in the patch overlap or are out of order");
+				}
+				if (next > baseEnd) {
+					throw new InvalidPatchFormatException("The patch changes lines past the end of the base file");
+				}
+				format.appendElements(workLines, baseLines, indexInBase, next);
+				indexInBase = next;
+
+				if (next == nextAddition) {
+					List<T> addedLines = additions.get(additionIndex++).getAddedLines();
+					format.appendElements(workLines, addedLines, 0, addedLines.size());
+				} else {
+					int deletionEnd = next + deletions.get(deletionIndex++).getLength();
+					if (lastRegion && deletionEnd > baseEnd) {
+						throw new InvalidPatchFormatException("The patch changes lines past the end of the base file");
+					}
+					// A deletion which carries on into the next region is
+					// finished by it
+					indexInBase = Math.min(deletionEnd, baseEnd);
+				}
+			}
+			format.appendElements(workLines, baseLines, indexInBase, baseEnd);
+			return workLines;
+		}
+
+		private Patch<T> readChanges(int from, int to) throws InvalidPatchFormatException, IOException {
+			Patch<T> patch = new Patch<T>();
+			ByteBuffer changes = buffer.duplicate();
+			try {
+				for (int i = from; i < to; i++) {
+					long offset = buffer.getLong(indexOffset + i * INDEX_ENTRY_SIZE + 4);
+					if (offset < 0 || offset > indexOffset - 9) {
+						throw new InvalidPatchFormatException("Invalid index");
+					}
+					changes.limit(indexOffset).position((int) offset);
+					int type = changes.get() & 0xff;
+					int start = changes.getInt();
+					int len = changes.getInt();
+					List<T> addedLines = null;
+					if (type == TYPE_ADDITION) {
+						int blobSize = changes.getInt();
+						if (blobSize < 0 || blobSize > changes.remaining()) {
+							throw new InvalidPatchFormatException("Invalid blobSize");
+						}
+						changes.limit(changes.position() + blobSize);
+						addedLines = readAddedLines(format, len, changes);
+					}
+					addChange(patch, type, start, len, addedLines);
+				}
+			} catch (BufferUnderflowException e) {
+				throw new InvalidPatchFormatException("Reached the end of a change unexpectedly", e);
+			}
+			return patch;
+		}
+	}
+
+}
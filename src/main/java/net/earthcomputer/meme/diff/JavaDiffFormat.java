@@ -3,154 +3,81 @@ package net.earthcomputer.meme.diff;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * The Java diff format, compares files Java-token-by-Java-token
  */
 public class JavaDiffFormat implements IDiffFormat<JavaDiffFormat.Token> {
 
-	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
-	private static final Pattern SINGLE_CHAR = Pattern.compile("[^\\w\\s]");
-	private static final Pattern MULTICHAR_OPERATOR = Pattern
-			.compile("==|&&|\\|\\||>>>?|<<|\\+=|-=|\\*=|/=|%=|&=|\\|=|\\^=|>>>?=|<<=|->|::|!=|<=|>=|\\+\\+|--");
-	private static final Pattern WORD = Pattern.compile("[\\w_\\$]+");
-	private static final Pattern SINGLE_QUOTED_END = Pattern.compile(".*?'");
-	private static final Pattern SINGLE_QUOTED_TEXT = Pattern.compile("'.+?'");
-	private static final Pattern DOUBLE_QUOTED_END = Pattern.compile(".*?\"");
-	private static final Pattern DOUBLE_QUOTED_TEXT = Pattern.compile("\".*?\"");
-	private static final Pattern MULTILINE_COMMENT_START = Pattern.compile("/\\*");
-	private static final Pattern MULTILINE_COMMENT_END = Pattern.compile("\\*/");
-	private static final Pattern SINGLELINE_COMMENT = Pattern.compile("//.*?$");
-	private static final Pattern TOKEN_PATTERN;
-	static {
-		Pattern[] patterns = { SINGLELINE_COMMENT, MULTILINE_COMMENT_START, DOUBLE_QUOTED_TEXT, SINGLE_QUOTED_TEXT,
-				WORD, MULTICHAR_OPERATOR, SINGLE_CHAR, WHITESPACE };
-		String pattern = "";
-		for (Pattern p : patterns) {
-			if (!pattern.isEmpty()) {
-				pattern += "|";
-			}
-			pattern += "(" + p.pattern() + ")";
-		}
-		TOKEN_PATTERN = Pattern.compile(pattern);
-	}
-
 	@Override
 	public String getName() {
 		return "java";
 	}
 
 	@Override
-	public List<Token> readElementsFromPatchFile(Scanner in, int count) {
-		// Most tokens appear on the same line, so the basic concept is we
-		// iterate through the lines and then search for tokens in each line.
-		// The only multiline token, the multiline comment, is treated as a
-		// special case throughout this code.
-
+	public List<Token> readElementsFromBaseFile(InputStream in) throws IOException {
+		Charset charset = Charset.defaultCharset();
+		if (!LineReader.canSplit(charset)) {
+			return readElementsFromPatchFile(new Scanner(in), Integer.MAX_VALUE);
+		}
 		List<Token> tokens = new ArrayList<Token>();
-		String multilineComment = null;
-
-		// Iterate through the lines
-		lineLoop: while ((tokens.size() < count || multilineComment != null) && Utils.hasNextLine(in)) {
-			String line = Utils.nextLine(in);
-
-			Matcher tokenMatcher = TOKEN_PATTERN.matcher(line);
-
-			// Check if we are still in a multiline comment
-			if (multilineComment != null) {
-				// Try and find an end to the comment on this line
-				tokenMatcher.usePattern(MULTILINE_COMMENT_END);
-				if (tokenMatcher.find()) {
-					// There is an end, continue searching this line
-					multilineComment += line.substring(0, tokenMatcher.start());
-					multilineComment += tokenMatcher.group();
-					tokenMatcher.usePattern(TOKEN_PATTERN);
-					tokens.add(new Token(multilineComment));
-					multilineComment = null;
-					// Check if we shouldn't be consuming any more tokens
-					if (tokens.size() >= count) {
-						break lineLoop;
-					}
-				} else {
-					// Just add this whole line to the existing multiline
-					// comment and continue to the next line
-					multilineComment += line + "\n";
-					continue lineLoop;
-				}
-			}
-
-			// Iterate through the tokens in this line
-			tokenLoop: while (tokens.size() < count && tokenMatcher.find()) {
-				String token = tokenMatcher.group();
-
-				if (SINGLE_QUOTED_TEXT.matcher(token).matches()) {
-					// Search for \ escapes in single-quotes
-					tokenMatcher.usePattern(SINGLE_QUOTED_END);
-					while (isEscaped(token, token.length() - 1)) {
-						if (!tokenMatcher.find()) {
-							break tokenLoop;
-						}
-						token += tokenMatcher.group();
-					}
-					tokenMatcher.usePattern(TOKEN_PATTERN);
-				} else if (DOUBLE_QUOTED_TEXT.matcher(token).matches()) {
-					// Search for \ escapes in double-quotes
-					tokenMatcher.usePattern(DOUBLE_QUOTED_END);
-					while (isEscaped(token, token.length() - 1)) {
-						if (!tokenMatcher.find()) {
-							break tokenLoop;
-						}
-						token += tokenMatcher.group();
-					}
-					tokenMatcher.usePattern(TOKEN_PATTERN);
-				} else if (MULTILINE_COMMENT_START.matcher(token).matches()) {
-					multilineComment = token;
-					int commentStart = tokenMatcher.end();
-
-					// Search for a possible end on the same line
-					tokenMatcher.usePattern(MULTILINE_COMMENT_END);
-					if (tokenMatcher.find()) {
-						// Just complete this token with the rest of the
-						// comment, and continue as if nothing happened
-						multilineComment += line.substring(commentStart, tokenMatcher.start());
-						multilineComment += tokenMatcher.group();
-						token = multilineComment;
-						multilineComment = null;
-						tokenMatcher.usePattern(TOKEN_PATTERN);
-					} else {
-						// Add the rest of this line to the multiline comment
-						// and continue to the next line
-						multilineComment += line.substring(commentStart);
-						multilineComment += "\n";
-						continue lineLoop;
-					}
-				}
-
-				// Finally, add this token to the token list
-				tokens.add(new Token(token));
-			}
+		JavaLexer.lex(new LineReader(in, charset, false), tokens, Integer.MAX_VALUE);
+		return tokens;
+	}
 
-			// Newline counts as a token
-			// Make sure we don't consume too many tokens
-			if (tokens.size() < count) {
-				tokens.add(new Token("\n"));
-			}
+	@Override
+	public List<Token> readElementsFromBaseFile(ByteBuffer buffer) throws IOException {
+		Charset charset = Charset.defaultCharset();
+		if (!LineReader.canSplit(charset)) {
+			return readElementsFromBaseFile(new ByteBufferInputStream(buffer));
 		}
+		List<Token> tokens = new ArrayList<Token>();
+		JavaLexer.lex(new LineReader(buffer, charset, false), tokens, Integer.MAX_VALUE);
 		return tokens;
 	}
 
-	private static boolean isEscaped(String str, int index) {
-		return index > 0 && str.charAt(index - 1) == '\\' && !isEscaped(str, index - 1);
+	@Override
+	public List<Token> readElementsFromPatchFile(Scanner in, int count) {
+		return readElementsFromPatchFile(Utils.lines(in), count);
+	}
+
+	@Override
+	public List<Token> readElementsFromPatchFile(Iterator<String> lines, int count) {
+		List<Token> tokens = new ArrayList<Token>();
+		JavaLexer.lex(lines, tokens, count);
+		return tokens;
 	}
 
 	@Override
 	public void printElementsToPatchFile(List<Token> elements, PrintWriter out) {
+		printTokens(elements, out);
+		if (!elements.get(elements.size() - 1).getValue().endsWith("\n")) {
+			out.println();
+		}
+	}
+
+	@Override
+	public void appendElementsToWorkFile(List<Token> elements, OutputStream out) throws IOException {
+		// Only the last chunk gets a newline on the end
+		PrintWriter pw = new PrintWriter(out);
+		printTokens(elements, pw);
+		pw.flush();
+	}
+
+	private static void printTokens(List<Token> elements, PrintWriter out) {
 		// We need to be careful we use the right newline character on the right
 		// operating system
 		for (Token token : elements) {
@@ -166,9 +93,6 @@ public class JavaDiffFormat implements IDiffFormat<JavaDiffFormat.Token> {
 				}
 			}
 		}
-		if (!elements.get(elements.size() - 1).getValue().endsWith("\n")) {
-			out.println();
-		}
 	}
 
 	@Override
@@ -178,26 +102,120 @@ public class JavaDiffFormat implements IDiffFormat<JavaDiffFormat.Token> {
 
 	@Override
 	public Token deserializeElement(DataInputStream data) throws IOException {
-		return new Token(data.readUTF());
+		return Token.of(data.readUTF());
+	}
+
+	@Override
+	public void serializeElementsToBlob(List<Token> elements, DataOutputStream blob) throws IOException {
+		for (Token element : elements) {
+			Utils.writeString(blob, element.getValue());
+		}
+	}
+
+	@Override
+	public List<Token> deserializeElementsFromBlob(int count, ByteBuffer blob) throws IOException {
+		List<Token> elements = new ArrayList<Token>(count);
+		for (int i = 0; i < count; i++) {
+			elements.add(Token.of(Utils.readString(blob)));
+		}
+		return elements;
 	}
 
-	public static class Token {
-		private String value;
+	/**
+	 * A Java token. Tokens are created through {@link #of(String)}, which
+	 * hands out the same instance for every occurrence of a token in Java's
+	 * fixed vocabulary, such as <tt>{</tt>, <tt>;</tt>, <tt>public</tt> or a
+	 * run of spaces, so most of the tokens in a file share a few hundred
+	 * instances. Identifiers, literals and comments get their own instances,
+	 * so that a long-running process doesn't hold on to every one it has ever
+	 * seen
+	 */
+	public static final class Token {
+		// Single character tokens, which are most of them, by character
+		private static final Token[] ASCII_TOKENS = new Token[128];
+		// The rest of the fixed vocabulary: keywords, longer operators and
+		// indentation. Never changed after the class is initialized
+		private static final Map<String, Token> VOCABULARY;
 
+		private static final String[] KEYWORDS = { "abstract", "assert", "boolean", "break", "byte", "case",
+				"catch", "char", "class", "const", "continue", "default", "do", "double", "else", "enum", "extends",
+				"final", "finally", "float", "for", "goto", "if", "implements", "import", "instanceof", "int",
+				"interface", "long", "native", "new", "package", "private", "protected", "public", "return", "short",
+				"static", "strictfp", "super", "switch", "synchronized", "this", "throw", "throws", "transient",
+				"try", "void", "volatile", "while", "true", "false", "null", "var" };
+		private static final int MAX_INDENT = 64;
+
+		static {
+			for (char c = 0; c < ASCII_TOKENS.length; c++) {
+				String value = String.valueOf(c);
+				ASCII_TOKENS[c] = new Token(value, Kind.classify(value));
+			}
+			Map<String, Token> vocabulary = new HashMap<String, Token>();
+			List<String> values = new ArrayList<String>();
+			Collections.addAll(values, KEYWORDS);
+			Collections.addAll(values, JavaLexer.OPERATORS);
+			for (int i = 2; i <= MAX_INDENT; i++) {
+				values.add(repeat(' ', i));
+				values.add(repeat('\t', i));
+			}
+			for (String value : values) {
+				vocabulary.put(value, new Token(value, Kind.classify(value)));
+			}
+			VOCABULARY = vocabulary;
+		}
+
+		public static final Token NEW_LINE = ASCII_TOKENS['\n'];
+
+		private final String value;
+		private final Kind kind;
+		private final int hash;
+
+		/**
+		 * @deprecated Use {@link #of(String)}, which shares instances of
+		 *             common tokens
+		 */
+		@Deprecated
 		public Token(String value) {
+			this(value, Kind.classify(value));
+		}
+
+		private Token(String value, Kind kind) {
 			this.value = value;
+			this.kind = kind;
+			this.hash = value.hashCode();
+		}
+
+		private static String repeat(char c, int count) {
+			char[] chars = new char[count];
+			Arrays.fill(chars, c);
+			return new String(chars);
+		}
+
+		/**
+		 * Returns the token with the given value
+		 */
+		public static Token of(String value) {
+			if (value.length() == 1 && value.charAt(0) < ASCII_TOKENS.length) {
+				return ASCII_TOKENS[value.charAt(0)];
+			}
+			Token token = VOCABULARY.get(value);
+			return token != null ? token : new Token(value, Kind.classify(value));
 		}
 
 		public String getValue() {
 			return value;
 		}
 
+		public Kind getKind() {
+			return kind;
+		}
+
 		public boolean isNewLine() {
-			return value.equals("\n");
+			return kind == Kind.NEW_LINE;
 		}
 
 		public boolean isWhitespace() {
-			return value.matches("\\s+");
+			return kind == Kind.NEW_LINE || kind == Kind.WHITESPACE;
 		}
 
 		@Override
@@ -213,27 +231,49 @@ public class JavaDiffFormat implements IDiffFormat<JavaDiffFormat.Token> {
 
 		@Override
 		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + ((value == null) ? 0 : value.hashCode());
-			return result;
+			return hash;
 		}
 
 		@Override
 		public boolean equals(Object obj) {
 			if (this == obj)
 				return true;
-			if (obj == null)
-				return false;
 			if (!(obj instanceof Token))
 				return false;
 			Token other = (Token) obj;
-			if (value == null) {
-				if (other.value != null)
-					return false;
-			} else if (!value.equals(other.value))
+			if (kind != other.kind || hash != other.hash)
 				return false;
-			return true;
+			return value.equals(other.value);
+		}
+	}
+
+	/**
+	 * What sort of thing a {@link Token} is
+	 */
+	public static enum Kind {
+		NEW_LINE, WHITESPACE, WORD, OPERATOR, COMMENT, LITERAL;
+
+		private static Kind classify(String value) {
+			if (value.equals("\n")) {
+				return NEW_LINE;
+			}
+			if (value.isEmpty()) {
+				return OPERATOR;
+			}
+			char first = value.charAt(0);
+			if (JavaLexer.isWhitespace(first)) {
+				return WHITESPACE;
+			}
+			if (JavaLexer.isWordChar(first)) {
+				return WORD;
+			}
+			if (value.startsWith("//") || value.startsWith("/*")) {
+				return COMMENT;
+			}
+			if ((first == '"' || first == '\'') && value.length() > 1) {
+				return LITERAL;
+			}
+			return OPERATOR;
 		}
 	}
 
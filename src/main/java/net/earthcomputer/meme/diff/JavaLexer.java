@@ -0,0 +1,165 @@
+package net.earthcomputer.meme.diff;
+
+import java.util.Iterator;
+import java.util.List;
+
+import net.earthcomputer.meme.diff.JavaDiffFormat.Token;
+
+/**
+ * Splits Java source code into the tokens used by the {@link JavaDiffFormat},
+ * looking at one character at a time. Lines are lexed one at a time, and
+ * multiline comments and text blocks are carried over from one line to the
+ * next
+ */
+class JavaLexer {
+
+	// In the order they are tried in, the first one which matches wins
+	static final String[] OPERATORS = { "==", "&&", "||", ">>>", ">>", "<<", "+=", "-=", "*=", "/=", "%=",
+			"&=", "|=", "^=", "->", "::", "!=", "<=", ">=", "++", "--" };
+
+	private final List<Token> tokens;
+	private final int count;
+
+	// The multiline comment or text block which has been started but not
+	// finished yet, and what it ends with
+	private StringBuilder multilineToken;
+	private String multilineTokenEnd;
+
+	private JavaLexer(List<Token> tokens, int count) {
+		this.tokens = tokens;
+		this.count = count;
+	}
+
+	/**
+	 * Adds the tokens in the given lines to the list, until there are
+	 * <tt>count</tt> tokens in it or there are no lines left. Each line is
+	 * followed by a newline token, apart from those which end inside a
+	 * multiline comment or text block
+	 */
+	public static void lex(Iterator<String> lines, List<Token> tokens, int count) {
+		JavaLexer lexer = new JavaLexer(tokens, count);
+		while ((tokens.size() < count || lexer.multilineToken != null) && lines.hasNext()) {
+			lexer.lexLine(lines.next());
+		}
+		if (lexer.multilineToken != null) {
+			// It was never finished, so finish it at the end of the file
+			lexer.multilineToken.setLength(lexer.multilineToken.length() - 1);
+			tokens.add(Token.of(lexer.multilineToken.toString()));
+			if (tokens.size() < count) {
+				tokens.add(Token.NEW_LINE);
+			}
+		}
+	}
+
+	private void lexLine(String line) {
+		int pos = 0;
+		int length = line.length();
+
+		if (multilineToken != null) {
+			int end = findEnd(line, 0, multilineTokenEnd);
+			if (end == -1) {
+				multilineToken.append(line).append('\n');
+				return;
+			}
+			multilineToken.append(line, 0, end);
+			tokens.add(Token.of(multilineToken.toString()));
+			multilineToken = null;
+			if (tokens.size() >= count) {
+				return;
+			}
+			pos = end;
+		}
+
+		while (pos < length && tokens.size() < count) {
+			char c = line.charAt(pos);
+			int end;
+			if (line.startsWith("//", pos)) {
+				end = length;
+			} else if (line.startsWith("/*", pos) || line.startsWith("\"\"\"", pos)) {
+				String tokenEnd = c == '/' ? "*/" : "\"\"\"";
+				end = findEnd(line, pos + tokenEnd.length(), tokenEnd);
+				if (end == -1) {
+					multilineToken = new StringBuilder(line.length() - pos + 64);
+					multilineToken.append(line, pos, length).append('\n');
+					multilineTokenEnd = tokenEnd;
+					return;
+				}
+			} else if (c == '"' && (end = findEnd(line, pos + 1, "\"")) != -1) {
+				// A string
+			} else if (c == '\'' && pos + 1 < length && (end = findEnd(line, pos + 2, "'")) != -1) {
+				// A character, which isn't allowed to be empty
+			} else if (c == '"' || c == '\'') {
+				// Not closed on this line
+				end = pos + 1;
+			} else if (isWordChar(c)) {
+				end = pos + 1;
+				while (end < length && isWordChar(line.charAt(end))) {
+					end++;
+				}
+			} else if ((end = findOperatorEnd(line, pos)) != -1) {
+				// An operator with more than one character
+			} else if (isWhitespace(c)) {
+				end = pos + 1;
+				while (end < length && isWhitespace(line.charAt(end))) {
+					end++;
+				}
+			} else {
+				end = pos + Character.charCount(line.codePointAt(pos));
+			}
+			tokens.add(Token.of(line.substring(pos, end)));
+			pos = end;
+		}
+
+		// Newline counts as a token
+		if (tokens.size() < count) {
+			tokens.add(Token.NEW_LINE);
+		}
+	}
+
+	/**
+	 * Returns the index just past the first occurrence of <tt>tokenEnd</tt>
+	 * at or after <tt>from</tt> which isn't escaped by a backslash, or -1 if
+	 * there isn't one. Comments can't be escaped out of
+	 */
+	private static int findEnd(String line, int from, String tokenEnd) {
+		boolean canEscape = tokenEnd.charAt(0) != '*';
+		int index = from;
+		while ((index = line.indexOf(tokenEnd, index)) != -1) {
+			if (!canEscape || !isEscaped(line, index)) {
+				return index + tokenEnd.length();
+			}
+			index++;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns whether the character at the given index is preceded by an odd
+	 * number of backslashes
+	 */
+	private static boolean isEscaped(String line, int index) {
+		int backslashes = 0;
+		while (index - backslashes > 0 && line.charAt(index - backslashes - 1) == '\\') {
+			backslashes++;
+		}
+		return (backslashes & 1) != 0;
+	}
+
+	private static int findOperatorEnd(String line, int pos) {
+		for (String operator : OPERATORS) {
+			if (line.startsWith(operator, pos)) {
+				return pos + operator.length();
+			}
+		}
+		return -1;
+	}
+
+	static boolean isWordChar(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '$';
+	}
+
+	static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+}
@@ -0,0 +1,193 @@
+package net.earthcomputer.meme.diff;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * An unmodifiable list of the lines in a buffer of encoded text. Only the
+ * buffer and the start of each line are stored, and each line is decoded when
+ * it is asked for, which takes up a lot less memory than a string for every
+ * line. The buffer may be a memory mapped file, in which case the file must
+ * not be changed while the list is in use.
+ *
+ * Lines are split in the same way as {@link LineReader} splits them
+ */
+public class LineList extends AbstractList<String> implements RandomAccess {
+
+	private final ByteBuffer buffer;
+	private final Charset charset;
+	private final boolean keepLineEndings;
+	// Whether each ASCII character is encoded as its own byte, so that ASCII
+	// lines can be hashed and compared without decoding them
+	private final boolean asciiCompatible;
+	// The start of each line in the buffer, followed by the end of the last
+	// line
+	private final int[] lineStarts;
+	private final int size;
+
+	private LineList(ByteBuffer buffer, Charset charset, boolean keepLineEndings, int[] lineStarts, int size) {
+		this.buffer = buffer;
+		this.charset = charset;
+		this.keepLineEndings = keepLineEndings;
+		this.asciiCompatible = isAsciiCompatible(charset);
+		this.lineStarts = lineStarts;
+		this.size = size;
+	}
+
+	/**
+	 * Splits the remaining bytes of the given buffer into lines, without
+	 * copying them. The charset must be one which
+	 * {@link LineReader#canSplit(Charset) can be split}
+	 */
+	public static LineList split(ByteBuffer buffer, Charset charset, boolean keepLineEndings) {
+		buffer = buffer.slice();
+		int end = buffer.limit();
+		int[] lineStarts = new int[1024];
+		int size = 0;
+		int lineStart = 0;
+		for (int i = 0; i < end; i++) {
+			byte b = buffer.get(i);
+			if (b == '\n' || (b == '\r' && (i + 1 == end || buffer.get(i + 1) != '\n'))) {
+				if (size + 1 == lineStarts.length) {
+					lineStarts = Arrays.copyOf(lineStarts, lineStarts.length * 2);
+				}
+				lineStarts[size++] = lineStart;
+				lineStart = i + 1;
+			}
+		}
+		if (lineStart != end) {
+			// The last line doesn't have a line ending
+			if (size + 1 == lineStarts.length) {
+				lineStarts = Arrays.copyOf(lineStarts, lineStarts.length + 1);
+			}
+			lineStarts[size++] = lineStart;
+		}
+		lineStarts[size] = end;
+		if (lineStarts.length > size + 1 + size / 4) {
+			lineStarts = Arrays.copyOf(lineStarts, size + 1);
+		}
+		return new LineList(buffer, charset, keepLineEndings, lineStarts, size);
+	}
+
+	@Override
+	public String get(int index) {
+		checkIndex(index);
+		int start = lineStarts[index];
+		return decode(start, lineEnd(index) - start);
+	}
+
+	/**
+	 * Returns the same hash code as the line at the given index, without
+	 * decoding it unless it has non-ASCII characters in it
+	 */
+	int hashLine(int index) {
+		checkIndex(index);
+		int start = lineStarts[index];
+		int end = lineEnd(index);
+		if (!asciiCompatible || !isAscii(start, end)) {
+			return decode(start, end - start).hashCode();
+		}
+		// The same as String.hashCode
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + buffer.get(i);
+		}
+		return hash;
+	}
+
+	/**
+	 * Returns whether the line at <tt>index1</tt> of <tt>list1</tt> is equal to
+	 * the line at <tt>index2</tt> of <tt>list2</tt>. The bytes are compared
+	 * when the lists have the same charset, and the lines are only decoded if
+	 * the bytes differ and aren't all ASCII, since different bytes can decode
+	 * to the same line
+	 */
+	static boolean linesEqual(LineList list1, int index1, LineList list2, int index2) {
+		list1.checkIndex(index1);
+		list2.checkIndex(index2);
+		if (!list1.charset.equals(list2.charset)) {
+			return list1.get(index1).equals(list2.get(index2));
+		}
+		int start1 = list1.lineStarts[index1];
+		int end1 = list1.lineEnd(index1);
+		int start2 = list2.lineStarts[index2];
+		int end2 = list2.lineEnd(index2);
+		if (end1 - start1 == end2 - start2) {
+			int i = 0;
+			while (start1 + i < end1 && list1.buffer.get(start1 + i) == list2.buffer.get(start2 + i)) {
+				i++;
+			}
+			if (start1 + i == end1) {
+				return true;
+			}
+		}
+		if (list1.asciiCompatible && list1.isAscii(start1, end1) && list2.isAscii(start2, end2)) {
+			return false;
+		}
+		return list1.decode(start1, end1 - start1).equals(list2.decode(start2, end2 - start2));
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+
+	/**
+	 * Returns the end of the line at the given index, before its line ending
+	 * unless line endings are kept
+	 */
+	private int lineEnd(int index) {
+		int start = lineStarts[index];
+		int end = lineStarts[index + 1];
+		if (!keepLineEndings) {
+			if (end > start && buffer.get(end - 1) == '\n') {
+				end--;
+			}
+			if (end > start && buffer.get(end - 1) == '\r') {
+				end--;
+			}
+		}
+		return end;
+	}
+
+	private boolean isAscii(int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (buffer.get(i) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isAsciiCompatible(Charset charset) {
+		byte[] ascii = new byte[128];
+		for (int i = 0; i < ascii.length; i++) {
+			ascii[i] = (byte) i;
+		}
+		String asciiString = new String(ascii, StandardCharsets.US_ASCII);
+		return charset.canEncode() && Arrays.equals(asciiString.getBytes(charset), ascii)
+				&& new String(ascii, charset).equals(asciiString);
+	}
+
+	private String decode(int start, int length) {
+		if (buffer.hasArray()) {
+			return new String(buffer.array(), buffer.arrayOffset() + start, length, charset);
+		}
+		byte[] bytes = new byte[length];
+		ByteBuffer line = buffer.duplicate();
+		line.position(start);
+		line.get(bytes);
+		return new String(bytes, charset);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+}
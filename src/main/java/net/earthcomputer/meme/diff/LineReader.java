@@ -0,0 +1,160 @@
+package net.earthcomputer.meme.diff;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Splits bytes into lines at <tt>\n</tt>, <tt>\r\n</tt> and <tt>\r</tt>, and
+ * decodes each line on its own. This is a lot faster than a
+ * {@link java.util.Scanner}, which has to decode everything and then match
+ * regexes against it. Only works for charsets in which these characters are
+ * encoded as single bytes, see {@link #canSplit(Charset)}
+ */
+class LineReader implements Iterator<String> {
+
+	private static final int BUFFER_SIZE = 65536;
+
+	// The input stream to fill the buffer from, or null if the buffer is all
+	// there is
+	private final InputStream in;
+	private final Charset charset;
+	private final boolean keepLineEndings;
+	// The bytes which haven't been split into lines yet are between the
+	// position and the limit of this buffer
+	private ByteBuffer buffer;
+	// Used to decode lines from buffers without a backing array
+	private byte[] lineBytes = new byte[256];
+
+	private String nextLine;
+	private boolean finished = false;
+
+	/**
+	 * Creates a line reader which reads from the given input stream
+	 */
+	public LineReader(InputStream in, Charset charset, boolean keepLineEndings) {
+		this.in = in;
+		this.charset = charset;
+		this.keepLineEndings = keepLineEndings;
+		this.buffer = ByteBuffer.wrap(new byte[BUFFER_SIZE], 0, 0);
+	}
+
+	/**
+	 * Creates a line reader which reads the remaining bytes of the given
+	 * buffer, without copying them
+	 */
+	public LineReader(ByteBuffer buffer, Charset charset, boolean keepLineEndings) {
+		this.in = null;
+		this.charset = charset;
+		this.keepLineEndings = keepLineEndings;
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Returns whether lines in the given charset can be split at the byte
+	 * level, i.e. whether <tt>\r</tt> and <tt>\n</tt> are encoded as the
+	 * single bytes they are in ASCII
+	 */
+	public static boolean canSplit(Charset charset) {
+		return charset.canEncode() && Arrays.equals("\r\n".getBytes(charset), new byte[] { '\r', '\n' });
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (nextLine == null && !finished) {
+			try {
+				nextLine = readLine();
+			} catch (IOException e) {
+				throw new NoSuchFileException("in", e);
+			}
+			finished = nextLine == null;
+		}
+		return nextLine != null;
+	}
+
+	@Override
+	public String next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		String line = nextLine;
+		nextLine = null;
+		return line;
+	}
+
+	/**
+	 * Reads the next line, or returns <tt>null</tt> if there are no lines
+	 * left. Like {@link java.util.Scanner#nextLine()}, there is no empty line
+	 * after a line ending at the end of the input
+	 */
+	private String readLine() throws IOException {
+		// The length of the line so far, from the buffer's position
+		int length = 0;
+		while (true) {
+			if (buffer.position() + length == buffer.limit() && !fill()) {
+				return length == 0 ? null : decode(length, length);
+			}
+			byte b = buffer.get(buffer.position() + length);
+			if (b == '\n') {
+				return decode(length, length + 1);
+			}
+			if (b == '\r') {
+				if (buffer.position() + length + 1 == buffer.limit()) {
+					fill();
+				}
+				if (buffer.position() + length + 1 < buffer.limit()
+						&& buffer.get(buffer.position() + length + 1) == '\n') {
+					return decode(length, length + 2);
+				}
+				return decode(length, length + 1);
+			}
+			length++;
+		}
+	}
+
+	/**
+	 * Reads more bytes into the buffer, keeping the bytes that haven't been
+	 * split into lines yet. Returns whether any bytes were read
+	 */
+	private boolean fill() throws IOException {
+		if (in == null) {
+			return false;
+		}
+		byte[] bytes = buffer.array();
+		int remaining = buffer.remaining();
+		if (remaining == bytes.length) {
+			// This line is longer than the buffer
+			bytes = Arrays.copyOf(bytes, bytes.length * 2);
+		} else {
+			System.arraycopy(bytes, buffer.position(), bytes, 0, remaining);
+		}
+		int read = in.read(bytes, remaining, bytes.length - remaining);
+		buffer = ByteBuffer.wrap(bytes, 0, remaining + Math.max(read, 0));
+		return read > 0;
+	}
+
+	/**
+	 * Decodes the line at the buffer's position, and moves the position past
+	 * the line and its line ending
+	 */
+	private String decode(int length, int lengthWithLineEnding) {
+		int decodedLength = keepLineEndings ? lengthWithLineEnding : length;
+		String line;
+		if (buffer.hasArray()) {
+			line = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), decodedLength, charset);
+		} else {
+			if (lineBytes.length < decodedLength) {
+				lineBytes = new byte[Math.max(decodedLength, lineBytes.length * 2)];
+			}
+			buffer.duplicate().get(lineBytes, 0, decodedLength);
+			line = new String(lineBytes, 0, decodedLength, charset);
+		}
+		buffer.position(buffer.position() + lengthWithLineEnding);
+		return line;
+	}
+
+}
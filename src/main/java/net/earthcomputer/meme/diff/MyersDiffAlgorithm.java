@@ -0,0 +1,150 @@
+package net.earthcomputer.meme.diff;
+
+/**
+ * An implementation of Eugene W. Myers' O((N+M)D) difference algorithm, using
+ * the linear space refinement which finds the middle snake of the edit path
+ * and recursively solves the two halves either side of it. This always finds
+ * the smallest possible set of changes
+ */
+public class MyersDiffAlgorithm implements IDiffAlgorithm {
+
+	@Override
+	public String getName() {
+		return "myers";
+	}
+
+	@Override
+	public void computeChanges(int[] baseLines, int baseStart, int baseEnd, int[] workLines, int workStart,
+			int workEnd, int idCount, boolean[] deleted, boolean[] added) {
+		new Search(baseLines, workLines, deleted, added, (baseEnd - baseStart) + (workEnd - workStart))
+				.compare(baseStart, baseEnd, workStart, workEnd);
+	}
+
+	private static class Search {
+		private final int[] base;
+		private final int[] work;
+		private final boolean[] deleted;
+		private final boolean[] added;
+
+		// Furthest reaching x values on each diagonal, for the forward and
+		// backward searches. Diagonal k is stored at index k + offset
+		private final int[] forwardV;
+		private final int[] backwardV;
+		private final int offset;
+
+		// The snake found by the last call to findMiddleSnake
+		private int snakeStartX, snakeStartY, snakeEndX, snakeEndY;
+
+		Search(int[] base, int[] work, boolean[] deleted, boolean[] added, int maxLength) {
+			this.base = base;
+			this.work = work;
+			this.deleted = deleted;
+			this.added = added;
+			this.offset = maxLength + 1;
+			this.forwardV = new int[2 * offset + 1];
+			this.backwardV = new int[2 * offset + 1];
+		}
+
+		void compare(int baseStart, int baseEnd, int workStart, int workEnd) {
+			// Skip the common prefix and suffix, they never contain any changes
+			while (baseStart < baseEnd && workStart < workEnd && base[baseStart] == work[workStart]) {
+				baseStart++;
+				workStart++;
+			}
+			while (baseStart < baseEnd && workStart < workEnd && base[baseEnd - 1] == work[workEnd - 1]) {
+				baseEnd--;
+				workEnd--;
+			}
+
+			if (baseStart == baseEnd) {
+				for (int j = workStart; j < workEnd; j++) {
+					added[j] = true;
+				}
+			} else if (workStart == workEnd) {
+				for (int i = baseStart; i < baseEnd; i++) {
+					deleted[i] = true;
+				}
+			} else {
+				findMiddleSnake(baseStart, baseEnd, workStart, workEnd);
+				// Copy the snake into local variables, the recursive calls
+				// overwrite it
+				int startX = snakeStartX, startY = snakeStartY, endX = snakeEndX, endY = snakeEndY;
+				compare(baseStart, startX, workStart, startY);
+				compare(endX, baseEnd, endY, workEnd);
+			}
+		}
+
+		private void findMiddleSnake(int baseStart, int baseEnd, int workStart, int workEnd) {
+			int n = baseEnd - baseStart;
+			int m = workEnd - workStart;
+			int delta = n - m;
+			boolean odd = (delta & 1) != 0;
+			int maxD = (n + m + 1) / 2;
+
+			forwardV[offset + 1] = 0;
+			backwardV[offset + 1] = 0;
+
+			for (int d = 0; d <= maxD; d++) {
+				// Forward search from the top-left corner
+				for (int k = -d; k <= d; k += 2) {
+					int x;
+					if (k == -d || (k != d && forwardV[offset + k - 1] < forwardV[offset + k + 1])) {
+						x = forwardV[offset + k + 1];
+					} else {
+						x = forwardV[offset + k - 1] + 1;
+					}
+					int y = x - k;
+					int startX = x, startY = y;
+					while (x < n && y < m && base[baseStart + x] == work[workStart + y]) {
+						x++;
+						y++;
+					}
+					forwardV[offset + k] = x;
+
+					// The reverse diagonal which coincides with this one
+					int reverseK = delta - k;
+					if (odd && reverseK >= -(d - 1) && reverseK <= d - 1
+							&& x + backwardV[offset + reverseK] >= n) {
+						snakeStartX = baseStart + startX;
+						snakeStartY = workStart + startY;
+						snakeEndX = baseStart + x;
+						snakeEndY = workStart + y;
+						return;
+					}
+				}
+
+				// Backward search from the bottom-right corner. Coordinates are
+				// measured from the end of the lists. Diagonals are visited in
+				// the opposite order to the forward search, so that ties are
+				// broken the same way in both directions
+				for (int k = d; k >= -d; k -= 2) {
+					int x;
+					if (k == -d || (k != d && backwardV[offset + k - 1] < backwardV[offset + k + 1])) {
+						x = backwardV[offset + k + 1];
+					} else {
+						x = backwardV[offset + k - 1] + 1;
+					}
+					int y = x - k;
+					int startX = x, startY = y;
+					while (x < n && y < m && base[baseEnd - 1 - x] == work[workEnd - 1 - y]) {
+						x++;
+						y++;
+					}
+					backwardV[offset + k] = x;
+
+					int forwardK = delta - k;
+					if (!odd && forwardK >= -d && forwardK <= d && x + forwardV[offset + forwardK] >= n) {
+						snakeStartX = baseEnd - x;
+						snakeStartY = workEnd - y;
+						snakeEndX = baseEnd - startX;
+						snakeEndY = workEnd - startY;
+						return;
+					}
+				}
+			}
+
+			throw new AssertionError("No middle snake found");
+		}
+	}
+
+}
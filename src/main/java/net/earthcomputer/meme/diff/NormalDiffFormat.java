@@ -1,10 +1,18 @@
 package net.earthcomputer.meme.diff;
 
+import java.io.BufferedWriter;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Scanner;
 
@@ -13,16 +21,109 @@ import java.util.Scanner;
  */
 public class NormalDiffFormat implements IDiffFormat<String> {
 
+	private final Charset charset;
+	private final boolean keepLineEndings;
+
+	/**
+	 * Creates the normal diff format, which reads and writes files in the
+	 * platform's default charset
+	 */
+	public NormalDiffFormat() {
+		this(Charset.defaultCharset(), false);
+	}
+
+	/**
+	 * Creates a line-by-line diff format which reads and writes files in the
+	 * given charset. The charset isn't stored in patch files, so the same
+	 * format should be passed to the patcher after the patch file.
+	 * 
+	 * If <tt>keepLineEndings</tt> is <tt>true</tt>, each line keeps its line
+	 * ending (<tt>\n</tt>, <tt>\r\n</tt>, <tt>\r</tt>, or nothing at the end
+	 * of the file), so that the work file is reproduced exactly. Otherwise,
+	 * the line endings are dropped, and the platform's line separator is
+	 * written after every line of the work file
+	 */
+	public NormalDiffFormat(Charset charset, boolean keepLineEndings) {
+		if (keepLineEndings && !LineReader.canSplit(charset)) {
+			throw new IllegalArgumentException("Cannot keep line endings in charset " + charset);
+		}
+		this.charset = charset;
+		this.keepLineEndings = keepLineEndings;
+	}
+
 	@Override
 	public String getName() {
-		return "normal";
+		return keepLineEndings ? "exact" : "normal";
+	}
+
+	/**
+	 * Hashes the lines of a {@link LineList} without decoding them where
+	 * possible
+	 */
+	@Override
+	public int hashElement(List<String> elements, int index) {
+		if (elements instanceof LineList) {
+			return ((LineList) elements).hashLine(index);
+		}
+		return hashElement(elements.get(index));
+	}
+
+	/**
+	 * Compares the lines of two {@link LineList}s without decoding them where
+	 * possible
+	 */
+	@Override
+	public boolean elementsEqual(List<String> elements1, int index1, List<String> elements2, int index2) {
+		if (elements1 instanceof LineList && elements2 instanceof LineList) {
+			return LineList.linesEqual((LineList) elements1, index1, (LineList) elements2, index2);
+		}
+		return elementsEqual(elements1.get(index1), elements2.get(index2));
+	}
+
+	/**
+	 * Reads all the lines into a {@link LineList} where possible, which is
+	 * unmodifiable
+	 */
+	@Override
+	public List<String> readElementsFromBaseFile(InputStream in) throws IOException {
+		if (!LineReader.canSplit(charset)) {
+			return readElementsFromPatchFile(new Scanner(in, charset.name()), Integer.MAX_VALUE);
+		}
+		return LineList.split(ByteList.readFrom(in).asByteBuffer(), charset, keepLineEndings);
+	}
+
+	/**
+	 * Splits the buffer into a {@link LineList} where possible, which keeps
+	 * hold of the buffer rather than copying it
+	 */
+	@Override
+	public List<String> readElementsFromBaseFile(ByteBuffer buffer) throws IOException {
+		if (!LineReader.canSplit(charset)) {
+			return readElementsFromBaseFile(new ByteBufferInputStream(buffer));
+		}
+		return LineList.split(buffer, charset, keepLineEndings);
+	}
+
+	@Override
+	public Iterator<String> streamElementsFromBaseFile(InputStream in) {
+		if (LineReader.canSplit(charset)) {
+			return new LineReader(in, charset, keepLineEndings);
+		}
+
+		return Utils.lines(new Scanner(in, charset.name()));
 	}
 
 	@Override
 	public List<String> readElementsFromPatchFile(Scanner in, int count) {
+		return readElementsFromPatchFile(Utils.lines(in), count);
+	}
+
+	@Override
+	public List<String> readElementsFromPatchFile(Iterator<String> in, int count) {
 		List<String> lines = new ArrayList<String>();
-		for (int i = 0; i < count && Utils.hasNextLine(in); i++) {
-			lines.add(Utils.nextLine(in));
+		for (int i = 0; i < count && in.hasNext(); i++) {
+			String line = in.next();
+			lines.add(keepLineEndings ? unescape(line) : line);
 		}
 		return lines;
 	}
@@ -30,8 +131,27 @@ public class NormalDiffFormat implements IDiffFormat<String> {
 	@Override
 	public void printElementsToPatchFile(List<String> elements, PrintWriter out) {
 		for (String element : elements) {
-			out.println(element);
+			out.println(keepLineEndings ? escape(element) : element);
+		}
+	}
+
+	@Override
+	public void writeElementsToWorkFile(List<String> elements, OutputStream out) throws IOException {
+		appendElementsToWorkFile(elements, out);
+		out.close();
+	}
+
+	@Override
+	public void appendElementsToWorkFile(List<String> elements, OutputStream out) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, charset));
+		String lineSeparator = System.lineSeparator();
+		for (String element : elements) {
+			writer.write(element);
+			if (!keepLineEndings) {
+				writer.write(lineSeparator);
+			}
 		}
+		writer.flush();
 	}
 
 	@Override
@@ -44,4 +164,84 @@ public class NormalDiffFormat implements IDiffFormat<String> {
 		return data.readUTF();
 	}
 
+	@Override
+	public void serializeElementsToBlob(List<String> elements, DataOutputStream blob) throws IOException {
+		for (String element : elements) {
+			Utils.writeString(blob, element);
+		}
+	}
+
+	@Override
+	public List<String> deserializeElementsFromBlob(int count, ByteBuffer blob) throws IOException {
+		List<String> elements = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			elements.add(Utils.readString(blob));
+		}
+		return elements;
+	}
+
+	/**
+	 * Escapes backslashes and line endings, so that a line which keeps its
+	 * line ending takes up exactly one line in the text-based patch file, and
+	 * non-ASCII characters as <tt>&#92;uXXXX</tt>, so that the patch file is
+	 * read back the same whatever the platform's charset is
+	 */
+	private static String escape(String line) {
+		StringBuilder escaped = new StringBuilder(line.length() + 2);
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			switch (c) {
+			case '\\':
+				escaped.append("\\\\");
+				break;
+			case '\r':
+				escaped.append("\\r");
+				break;
+			case '\n':
+				escaped.append("\\n");
+				break;
+			default:
+				if (c < 0x80) {
+					escaped.append(c);
+				} else {
+					escaped.append(String.format("\\u%04x", (int) c));
+				}
+			}
+		}
+		return escaped.toString();
+	}
+
+	private static String unescape(String line) {
+		if (line.indexOf('\\') == -1) {
+			return line;
+		}
+		StringBuilder unescaped = new StringBuilder(line.length());
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '\\' && i + 1 < line.length()) {
+				c = line.charAt(++i);
+				if (c == 'r') {
+					c = '\r';
+				} else if (c == 'n') {
+					c = '\n';
+				} else if (c == 'u' && i + 4 < line.length() && isHex(line, i + 1, i + 5)) {
+					c = (char) Integer.parseInt(line.substring(i + 1, i + 5), 16);
+					i += 4;
+				}
+			}
+			unescaped.append(c);
+		}
+		return unescaped.toString();
+	}
+
+	private static boolean isHex(String str, int start, int end) {
+		for (int i = start; i < end; i++) {
+			char c = str.charAt(i);
+			if ((c < '0' || c > '9') && (c < 'a' || c > 'f') && (c < 'A' || c > 'F')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 }
@@ -0,0 +1,151 @@
+package net.earthcomputer.meme.diff;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits the lines up into independent segments and diffs them in parallel
+ * using another diff algorithm. Lines which appear exactly once in both the
+ * base and the work are used as anchors, in the same way as the patience diff
+ * algorithm, and the gaps between them are the segments.
+ *
+ * The anchors are always matched up, so the patch may not be the same as the
+ * one the other diff algorithm would have produced on its own
+ */
+public class ParallelDiffAlgorithm implements IDiffAlgorithm {
+
+	// Ranges smaller than this aren't worth splitting up
+	private static final int MIN_PARALLEL_LINES = 8192;
+	// The number of lines each task handles before it stops forking
+	private static final int MIN_TASK_LINES = 2048;
+
+	private final IDiffAlgorithm algorithm;
+	private final ForkJoinPool pool;
+
+	/**
+	 * Creates a parallel diff algorithm which diffs each segment with
+	 * <tt>algorithm</tt> on the given pool
+	 */
+	public ParallelDiffAlgorithm(IDiffAlgorithm algorithm, ForkJoinPool pool) {
+		this.algorithm = algorithm;
+		this.pool = pool;
+	}
+
+	@Override
+	public String getName() {
+		return "parallel-" + algorithm.getName();
+	}
+
+	@Override
+	public void computeChanges(int[] baseLines, int baseStart, int baseEnd, int[] workLines, int workStart,
+			int workEnd, int idCount, boolean[] deleted, boolean[] added) {
+		if (baseEnd - baseStart + workEnd - workStart < MIN_PARALLEL_LINES) {
+			algorithm.computeChanges(baseLines, baseStart, baseEnd, workLines, workStart, workEnd, idCount, deleted,
+					added);
+			return;
+		}
+
+		int[] anchors = new PatienceDiffAlgorithm.Search(baseLines, workLines, idCount, deleted, added)
+				.findAnchors(baseStart, baseEnd, workStart, workEnd);
+
+		// Add the ends of the ranges as extra anchors either side, so that
+		// segment i lies between anchors i and i + 1
+		int[] bounds = new int[anchors.length + 4];
+		bounds[0] = baseStart - 1;
+		bounds[1] = workStart - 1;
+		System.arraycopy(anchors, 0, bounds, 2, anchors.length);
+		bounds[bounds.length - 2] = baseEnd;
+		bounds[bounds.length - 1] = workEnd;
+
+		pool.invoke(new SegmentTask(baseLines, workLines, deleted, added, bounds, 0, bounds.length / 2 - 1));
+	}
+
+	/**
+	 * Diffs the segments from <tt>firstSegment</tt> (inclusive) to
+	 * <tt>lastSegment</tt> (exclusive), splitting them up into more tasks if
+	 * there are enough lines
+	 */
+	private class SegmentTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int[] base;
+		private final int[] work;
+		private final boolean[] deleted;
+		private final boolean[] added;
+		private final int[] bounds;
+		private final int firstSegment;
+		private final int lastSegment;
+
+		SegmentTask(int[] base, int[] work, boolean[] deleted, boolean[] added, int[] bounds, int firstSegment,
+				int lastSegment) {
+			this.base = base;
+			this.work = work;
+			this.deleted = deleted;
+			this.added = added;
+			this.bounds = bounds;
+			this.firstSegment = firstSegment;
+			this.lastSegment = lastSegment;
+		}
+
+		@Override
+		protected void compute() {
+			int lineCount = bounds[lastSegment * 2] - bounds[firstSegment * 2]
+					+ bounds[lastSegment * 2 + 1] - bounds[firstSegment * 2 + 1];
+			if (lastSegment - firstSegment > 1 && lineCount > MIN_TASK_LINES) {
+				int middleSegment = (firstSegment + lastSegment) >>> 1;
+				invokeAll(new SegmentTask(base, work, deleted, added, bounds, firstSegment, middleSegment),
+						new SegmentTask(base, work, deleted, added, bounds, middleSegment, lastSegment));
+				return;
+			}
+
+			for (int segment = firstSegment; segment < lastSegment; segment++) {
+				diffSegment(bounds[segment * 2] + 1, bounds[segment * 2 + 2], bounds[segment * 2 + 1] + 1,
+						bounds[segment * 2 + 3]);
+			}
+		}
+
+		private void diffSegment(int baseStart, int baseEnd, int workStart, int workEnd) {
+			// Most segments are unchanged, and many of the rest are pure
+			// additions or deletions, so don't bother the diff algorithm with
+			// those
+			while (baseStart < baseEnd && workStart < workEnd && base[baseStart] == work[workStart]) {
+				baseStart++;
+				workStart++;
+			}
+			while (baseStart < baseEnd && workStart < workEnd && base[baseEnd - 1] == work[workEnd - 1]) {
+				baseEnd--;
+				workEnd--;
+			}
+
+			if (baseStart == baseEnd || workStart == workEnd) {
+				for (int i = baseStart; i < baseEnd; i++) {
+					deleted[i] = true;
+				}
+				for (int j = workStart; j < workEnd; j++) {
+					added[j] = true;
+				}
+				return;
+			}
+
+			// Renumber the lines in the segment, so that any scratch space the
+			// other algorithm allocates by ID or by line is sized by the
+			// segment rather than the whole file
+			FingerprintInterner interner = new FingerprintInterner();
+			int[] segmentBase = new int[baseEnd - baseStart];
+			for (int i = 0; i < segmentBase.length; i++) {
+				segmentBase[i] = interner.intern(base[baseStart + i]);
+			}
+			int[] segmentWork = new int[workEnd - workStart];
+			for (int j = 0; j < segmentWork.length; j++) {
+				segmentWork[j] = interner.intern(work[workStart + j]);
+			}
+			boolean[] segmentDeleted = new boolean[segmentBase.length];
+			boolean[] segmentAdded = new boolean[segmentWork.length];
+			algorithm.computeChanges(segmentBase, 0, segmentBase.length, segmentWork, 0, segmentWork.length,
+					interner.size(), segmentDeleted, segmentAdded);
+			System.arraycopy(segmentDeleted, 0, deleted, baseStart, segmentDeleted.length);
+			System.arraycopy(segmentAdded, 0, added, workStart, segmentAdded.length);
+		}
+	}
+
+}
@@ -78,6 +78,14 @@ public class Patch<T> {
 			return addedLines;
 		}
 
+		/**
+		 * Returns the added lines, given the lines of the base file this
+		 * patch is being applied to
+		 */
+		public List<T> getAddedLines(List<T> baseLines) {
+			return getAddedLines();
+		}
+
 		@Override
 		public String toString() {
 			StringBuilder str = new StringBuilder(super.toString());
@@ -89,6 +97,48 @@ public class Patch<T> {
 		}
 	}
 
+	/**
+	 * An addition of lines which are copied from elsewhere in the base file,
+	 * so that the patch file doesn't have to contain the lines themselves
+	 */
+	public static class Copy<T> extends Addition<T> {
+		private final int sourceStart;
+
+		/**
+		 * Creates a copy of the base lines starting at
+		 * <tt>sourceStart</tt> (with 1 as the first line). The copied lines
+		 * may be <tt>null</tt> if they aren't known yet, e.g. when the copy
+		 * has been read from a patch file
+		 */
+		public Copy(List<T> copiedLines, int start, int sourceStart, int length) {
+			super(copiedLines, start, length);
+			this.sourceStart = sourceStart;
+		}
+
+		public int getSourceStart() {
+			return sourceStart;
+		}
+
+		@Override
+		public List<T> getAddedLines() {
+			List<T> addedLines = super.getAddedLines();
+			if (addedLines == null) {
+				throw new IllegalStateException("The copied lines are only known once the base file is known");
+			}
+			return addedLines;
+		}
+
+		@Override
+		public List<T> getAddedLines(List<T> baseLines) {
+			return baseLines.subList(sourceStart - 1, sourceStart - 1 + getLength());
+		}
+
+		@Override
+		public String toString() {
+			return "from " + getStart() + ", len " + getLength() + ": copy of " + sourceStart;
+		}
+	}
+
 	public static class Deletion<T> extends Change<T> {
 		public Deletion(int start, int length) {
 			super(start, length);
@@ -0,0 +1,254 @@
+package net.earthcomputer.meme.diff;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single file containing the changes between two directory trees. Each entry
+ * is a file which has been changed, added or removed, identified by its path
+ * relative to the root of the tree with <tt>/</tt> separators. A changed file
+ * has a patch file in the bundle's patch file format, and an added file has
+ * its contents stored as they are. Files which haven't changed aren't stored
+ */
+public class PatchBundle {
+
+	// @formatter:off
+	private static final int MAGIC =
+			('M' << 24) |
+			('B' << 16) |
+			('D' << 8) |
+			('L' << 0);
+	// @formatter:on
+	private static final int VERSION = 0;
+
+	// Written after the last entry, in place of an entry type
+	private static final int END = 0xff;
+
+	private final IPatchFileFormat patchFileFormat;
+	private final List<Entry> entries;
+
+	private PatchBundle(IPatchFileFormat patchFileFormat, List<Entry> entries) {
+		this.patchFileFormat = patchFileFormat;
+		this.entries = entries;
+	}
+
+	/**
+	 * Returns the patch file format of the patches for the changed files
+	 */
+	public IPatchFileFormat getPatchFileFormat() {
+		return patchFileFormat;
+	}
+
+	public List<Entry> getEntries() {
+		return Collections.unmodifiableList(entries);
+	}
+
+	/**
+	 * Reads a bundle by memory mapping the given file. The file must not be
+	 * changed while the bundle is in use
+	 */
+	public static PatchBundle read(File file) throws InvalidPatchFormatException {
+		ByteBuffer buffer = Utils.mapFile(file);
+		if (buffer == null) {
+			throw new InvalidPatchFormatException("Bundle is too large");
+		}
+		try {
+			return read(buffer);
+		} catch (IOException e) {
+			throw new NoSuchFileException(file.getAbsolutePath(), e);
+		}
+	}
+
+	/**
+	 * Reads a bundle from the remaining bytes of the given buffer. The
+	 * contents of the entries are views into the buffer, so aren't copied
+	 */
+	public static PatchBundle read(ByteBuffer buffer) throws InvalidPatchFormatException, IOException {
+		buffer = buffer.slice();
+		DataInputStream data = new DataInputStream(new ByteBufferInputStream(buffer));
+		if (data.readInt() != MAGIC) {
+			throw new InvalidPatchFormatException("Invalid magic number");
+		}
+		int version = data.readUnsignedByte();
+		switch (version) {
+		case 0:
+			return readVersion0(buffer, data);
+		default:
+			throw new InvalidPatchFormatException("Unsupported bundle version: " + version);
+		}
+	}
+
+	private static PatchBundle readVersion0(ByteBuffer buffer, DataInputStream data)
+			throws IOException, InvalidPatchFormatException {
+		IPatchFileFormat patchFileFormat = PatchFileFormats.byName(data.readUTF());
+		if (patchFileFormat == null) {
+			throw new InvalidPatchFormatException("Invalid patch file format");
+		}
+
+		List<Entry> entries = new ArrayList<Entry>();
+		int typeId;
+		while ((typeId = data.readUnsignedByte()) != END) {
+			if (typeId >= EntryType.values().length) {
+				throw new InvalidPatchFormatException("Invalid entry type: " + typeId);
+			}
+			EntryType type = EntryType.values()[typeId];
+			String path = data.readUTF();
+			if (!isValidPath(path)) {
+				throw new InvalidPatchFormatException("Invalid entry path: " + path);
+			}
+			ByteBuffer contents = null;
+			if (type != EntryType.REMOVED) {
+				long size = data.readLong();
+				if (size < 0 || size > buffer.remaining()) {
+					throw new InvalidPatchFormatException("Invalid entry size");
+				}
+				contents = buffer.slice();
+				contents.limit((int) size);
+				buffer.position(buffer.position() + (int) size);
+			}
+			entries.add(new Entry(type, path, contents));
+		}
+
+		return new PatchBundle(patchFileFormat, entries);
+	}
+
+	/**
+	 * Returns whether the given entry path stays inside the tree it's
+	 * resolved against: it must be relative, and each of its segments must be
+	 * a plain file name, so a crafted bundle can't write or delete files
+	 * outside the output directory
+	 */
+	static boolean isValidPath(String path) {
+		if (path.isEmpty() || path.startsWith("/") || path.indexOf('\\') != -1 || path.indexOf('\0') != -1) {
+			return false;
+		}
+		for (String segment : path.split("/", -1)) {
+			if (segment.isEmpty() || segment.equals(".") || segment.equals("..")) {
+				return false;
+			}
+		}
+		// e.g. a drive letter on Windows
+		return !new File(path).isAbsolute();
+	}
+
+	/**
+	 * What happened to the file in an {@link Entry}
+	 */
+	public static enum EntryType {
+		CHANGED, ADDED, REMOVED
+	}
+
+	/**
+	 * A file in the bundle
+	 */
+	public static class Entry {
+		private final EntryType type;
+		private final String path;
+		private final ByteBuffer contents;
+
+		public Entry(EntryType type, String path, ByteBuffer contents) {
+			this.type = type;
+			this.path = path;
+			this.contents = contents;
+		}
+
+		public EntryType getType() {
+			return type;
+		}
+
+		/**
+		 * Returns the path of the file relative to the root of the tree,
+		 * separated by <tt>/</tt>
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		/**
+		 * Returns the patch file of a changed file, the contents of an added
+		 * file, or <tt>null</tt> for a removed file. Each call returns a new
+		 * buffer, so the position can be changed freely
+		 */
+		public ByteBuffer getContents() {
+			return contents == null ? null : contents.duplicate();
+		}
+
+		@Override
+		public String toString() {
+			return type + " " + path;
+		}
+	}
+
+	/**
+	 * Writes a bundle one entry at a time, so the contents of all the entries
+	 * don't need to be in memory at once
+	 */
+	public static class Writer {
+		private final DataOutputStream data;
+
+		/**
+		 * Writes the header of a bundle to the given output stream
+		 */
+		public Writer(OutputStream out, IPatchFileFormat patchFileFormat) throws IOException {
+			this.data = new DataOutputStream(out);
+			data.writeInt(MAGIC);
+			data.write(VERSION);
+			data.writeUTF(patchFileFormat.getName());
+		}
+
+		public void writeChanged(String path, byte[] patchFile) throws IOException {
+			writeEntryHeader(EntryType.CHANGED, path);
+			data.writeLong(patchFile.length);
+			data.write(patchFile);
+		}
+
+		public void writeAdded(String path, File file) throws IOException {
+			writeEntryHeader(EntryType.ADDED, path);
+			long size = file.length();
+			data.writeLong(size);
+			InputStream in = Utils.getFileInputStream(file);
+			try {
+				byte[] buffer = new byte[65536];
+				long left = size;
+				int read;
+				while (left > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, left))) != -1) {
+					data.write(buffer, 0, read);
+					left -= read;
+				}
+				if (left != 0) {
+					throw new IOException("\"" + file + "\" changed size while it was being read");
+				}
+			} finally {
+				Utils.closeQuietly(in);
+			}
+		}
+
+		public void writeRemoved(String path) throws IOException {
+			writeEntryHeader(EntryType.REMOVED, path);
+		}
+
+		private void writeEntryHeader(EntryType type, String path) throws IOException {
+			data.write(type.ordinal());
+			data.writeUTF(path);
+		}
+
+		/**
+		 * Marks the end of the entries, and flushes and closes the output
+		 * stream
+		 */
+		public void close() throws IOException {
+			data.write(END);
+			data.flush();
+			data.close();
+		}
+	}
+
+}
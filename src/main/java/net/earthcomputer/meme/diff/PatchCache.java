@@ -0,0 +1,259 @@
+package net.earthcomputer.meme.diff;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.earthcomputer.meme.diff.IPatchFileFormat.PatchInfo;
+
+/**
+ * A cache of computed patches, keyed by the contents of the base and work
+ * files and the settings they were diffed with. Given to a
+ * {@link DiffFinder.Builder}, a hit skips reading and diffing the files
+ * entirely. Patches are kept in memory in the binary patch file format, or the
+ * delta patch file format if they have copies in them, with the least recently
+ * used ones evicted once they take up more than the given number of bytes.
+ * They can also be kept in a directory on disk, which is never evicted from.
+ * Can be shared between threads
+ */
+public class PatchCache {
+
+	private final long maxMemoryBytes;
+	private final File directory;
+
+	// In order of access, least recently used first
+	private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+	private long memoryBytes;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Creates a cache which only keeps patches in memory, up to the given
+	 * number of bytes of them
+	 */
+	public PatchCache(long maxMemoryBytes) {
+		this(maxMemoryBytes, null);
+	}
+
+	/**
+	 * Creates a cache which keeps patches in memory, up to the given number of
+	 * bytes of them, and in the given directory if it isn't <tt>null</tt>
+	 */
+	public PatchCache(long maxMemoryBytes, File directory) {
+		if (maxMemoryBytes < 0) {
+			throw new IllegalArgumentException("maxMemoryBytes < 0");
+		}
+		this.maxMemoryBytes = maxMemoryBytes;
+		this.directory = directory;
+	}
+
+	/**
+	 * Returns the key for diffing the given files with the given settings,
+	 * which is a hash of the contents of both files and the settings
+	 */
+	static String getKey(File baseFile, File workFile, IDiffFormat<?> format, IDiffAlgorithm algorithm,
+			boolean detectCopies, int minCopyLength) {
+		return getKey(Utils.sha256(baseFile), workFile, format, algorithm, detectCopies, minCopyLength);
+	}
+
+	/**
+	 * Returns the key for diffing the base file with the given SHA-256 hash
+	 * against the given work file
+	 */
+	static String getKey(byte[] baseHash, File workFile, IDiffFormat<?> format, IDiffAlgorithm algorithm,
+			boolean detectCopies, int minCopyLength) {
+		MessageDigest digest = Utils.newSha256();
+		digest.update(baseHash);
+		digest.update(Utils.sha256(workFile));
+		String settings = format.getName() + "\0" + algorithm.getName() + "\0"
+				+ (detectCopies ? "copies " + minCopyLength : "");
+		digest.update(settings.getBytes(StandardCharsets.UTF_8));
+		return toHex(digest.digest());
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 15, 16)).append(Character.forDigit(b & 15, 16));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Returns the patch with the given key, or <tt>null</tt> if it isn't
+	 * cached. A patch on disk which can't be read is treated as not being
+	 * cached
+	 */
+	<T> Patch<T> get(String key, IDiffFormat<T> format, boolean detectCopies) {
+		byte[] patchFile;
+		synchronized (this) {
+			patchFile = memory.get(key);
+		}
+		if (patchFile == null && directory != null) {
+			File file = getFile(key);
+			if (file.isFile()) {
+				try {
+					patchFile = Files.readAllBytes(file.toPath());
+				} catch (IOException e) {
+					patchFile = null;
+				}
+				if (patchFile != null) {
+					putInMemory(key, patchFile);
+				}
+			}
+		}
+		if (patchFile == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+
+		try {
+			PatchInfo<T> patch = getPatchFileFormat(detectCopies).readPatch(new ByteArrayInputStream(patchFile));
+			if (!patch.getFormat().getName().equals(format.getName())) {
+				throw new InvalidPatchFormatException("Cached patch has the wrong diff format");
+			}
+			hits.incrementAndGet();
+			return patch.getPatch();
+		} catch (InvalidPatchFormatException e) {
+			remove(key);
+			misses.incrementAndGet();
+			return null;
+		} catch (IOException e) {
+			remove(key);
+			misses.incrementAndGet();
+			return null;
+		}
+	}
+
+	/**
+	 * Caches the given patch with the given key
+	 */
+	<T> void put(String key, IDiffFormat<T> format, boolean detectCopies, Patch<T> patch) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			getPatchFileFormat(detectCopies).writePatch(new PatchInfo<T>(format, patch), out);
+		} catch (IOException e) {
+			// Can't happen writing to a byte array
+			throw new AssertionError(e);
+		}
+		byte[] patchFile = out.toByteArray();
+		putInMemory(key, patchFile);
+		if (directory != null) {
+			writeToDisk(key, patchFile);
+		}
+	}
+
+	/**
+	 * Returns the patch file format to store patches in. The binary format
+	 * can't store copies, so would turn them into additions
+	 */
+	private static IPatchFileFormat getPatchFileFormat(boolean detectCopies) {
+		return detectCopies ? PatchFileFormats.DELTA : PatchFileFormats.BINARY;
+	}
+
+	private synchronized void putInMemory(String key, byte[] patchFile) {
+		if (patchFile.length > maxMemoryBytes) {
+			return;
+		}
+		byte[] old = memory.put(key, patchFile);
+		if (old != null) {
+			memoryBytes -= old.length;
+		}
+		memoryBytes += patchFile.length;
+		Iterator<Map.Entry<String, byte[]>> itr = memory.entrySet().iterator();
+		while (memoryBytes > maxMemoryBytes) {
+			memoryBytes -= itr.next().getValue().length;
+			itr.remove();
+		}
+	}
+
+	/**
+	 * Writes the patch file to a temporary file and then moves it into place,
+	 * so that a patch which is being written is never read. Failing to write
+	 * it only means it won't be cached on disk
+	 */
+	private void writeToDisk(String key, byte[] patchFile) {
+		File file = getFile(key);
+		Path temp = null;
+		try {
+			Files.createDirectories(directory.toPath());
+			temp = Files.createTempFile(directory.toPath(), "." + key + ".", ".tmp");
+			Files.write(temp, patchFile);
+			try {
+				Files.move(temp, file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			// Not cached on disk
+		} finally {
+			if (temp != null) {
+				try {
+					Files.deleteIfExists(temp);
+				} catch (IOException e) {
+					// Nothing more can be done
+				}
+			}
+		}
+	}
+
+	private void remove(String key) {
+		synchronized (this) {
+			byte[] old = memory.remove(key);
+			if (old != null) {
+				memoryBytes -= old.length;
+			}
+		}
+		if (directory != null) {
+			getFile(key).delete();
+		}
+	}
+
+	private File getFile(String key) {
+		return new File(directory, key + ".bin");
+	}
+
+	/**
+	 * Removes all the patches from memory. The patches on disk are kept
+	 */
+	public synchronized void clearMemory() {
+		memory.clear();
+		memoryBytes = 0;
+	}
+
+	/**
+	 * Returns the number of bytes of patches kept in memory
+	 */
+	public synchronized long getMemoryBytes() {
+		return memoryBytes;
+	}
+
+	/**
+	 * Returns the number of times a patch was found in the cache
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of times a patch wasn't found in the cache, and had
+	 * to be computed
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+}
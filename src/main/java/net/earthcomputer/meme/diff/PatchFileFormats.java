@@ -19,8 +19,29 @@ public class PatchFileFormats {
 	 * The binary patch file format
 	 */
 	public static final BinaryPatchFileFormat BINARY = new BinaryPatchFileFormat();
+	/**
+	 * The binary patch file format which can store copies of base lines
+	 */
+	public static final DeltaPatchFileFormat DELTA = new DeltaPatchFileFormat();
+	/**
+	 * The binary patch file format with an index, for random access
+	 */
+	public static final IndexedPatchFileFormat INDEXED = new IndexedPatchFileFormat();
+	/**
+	 * The text-based patch file format, compressed
+	 */
+	public static final DeflatePatchFileFormat DEFLATE_TEXT = new DeflatePatchFileFormat(TEXT);
+	/**
+	 * The binary patch file format, compressed
+	 */
+	public static final DeflatePatchFileFormat DEFLATE_BINARY = new DeflatePatchFileFormat(BINARY);
+	/**
+	 * The delta patch file format, compressed
+	 */
+	public static final DeflatePatchFileFormat DEFLATE_DELTA = new DeflatePatchFileFormat(DELTA);
 
-	private static final IPatchFileFormat[] FORMATS = { TEXT, BINARY };
+	private static final IPatchFileFormat[] FORMATS = { TEXT, BINARY, DELTA, INDEXED, DEFLATE_TEXT,
+			DEFLATE_BINARY, DEFLATE_DELTA };
 	private static final Map<String, IPatchFileFormat> FORMATS_BY_NAME = new HashMap<String, IPatchFileFormat>();
 
 	static {
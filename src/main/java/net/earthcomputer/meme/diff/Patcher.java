@@ -4,11 +4,13 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 import net.earthcomputer.meme.diff.IPatchFileFormat.PatchInfo;
 import net.earthcomputer.meme.diff.Patch.Addition;
+import net.earthcomputer.meme.diff.Patch.Copy;
 import net.earthcomputer.meme.diff.Patch.Deletion;
 
 /**
@@ -54,8 +56,11 @@ public class Patcher<T> {
 		}
 
 		try {
+			// Copies need the whole base file in memory, anything else can be
+			// streamed
 			new Patcher.Builder<Object>().setPatchFileFormat(patchFileFormat).setPatchFile(patchFile)
-					.setBaseFile(baseFile).setOutputFile(workFile).build().writeWorkFile();
+					.setStreaming(!patchFileFormat.supportsCopies()).setBaseFile(baseFile).setOutputFile(workFile)
+					.build().writeWorkFile();
 		} catch (InvalidPatchFormatException e) {
 			System.err.println("The patch file had invalid format: " + e.getMessage());
 			System.exit(1);
@@ -63,83 +68,252 @@ public class Patcher<T> {
 		}
 	}
 
+	// The number of work lines to keep hold of before writing them when
+	// streaming
+	private static final int CHUNK_SIZE = 65536;
+
 	private final IDiffFormat<T> format;
 	private final List<T> baseLines;
+	private final InputStream baseInput;
 	private final Patch<T> patch;
 	private final OutputStream output;
+	private final IDiffListener listener;
+	// What it took to read the base file and patch file, measured by the
+	// builder
+	private final long readNanos;
+	private final long bytesRead;
+
+	// The base lines which haven't been read yet when streaming the base file
+	private Iterator<T> baseStream;
+	private CountingInputStream countingBaseInput;
+	private int baseLinesStreamed;
 
-	private Patcher(IDiffFormat<T> format, List<T> baseLines, Patch<T> patch, OutputStream output) {
+	private Patcher(IDiffFormat<T> format, List<T> baseLines, InputStream baseInput, Patch<T> patch,
+			OutputStream output, IDiffListener listener, long readNanos, long bytesRead) {
 		this.format = format;
 		this.baseLines = baseLines;
+		this.baseInput = baseInput;
 		this.patch = patch;
 		this.output = output;
+		this.listener = listener;
+		this.readNanos = readNanos;
+		this.bytesRead = bytesRead;
 	}
 
 	/**
-	 * Computes the work file and writes it
+	 * Computes the work file and writes it. When streaming, the work file is
+	 * written as the base file is read
 	 */
 	public void writeWorkFile() {
-		List<T> workLines = computeWorkFile();
-
+		DiffStats stats = new DiffStats(format.getName());
+		CountingOutputStream out = new CountingOutputStream(output);
 		try {
-			format.writeElementsToWorkFile(workLines, output);
+			List<T> workLines = computeWorkFile(out, stats);
 
-			output.flush();
-			output.close();
+			long writeStart = System.nanoTime();
+			format.writeElementsToWorkFile(workLines, out);
+			out.flush();
+			out.close();
+			// Writing while streaming is counted in the compute time
+			stats.setWriteNanos(System.nanoTime() - writeStart);
+			stats.setBytesWritten(out.getCount());
 		} catch (IOException e) {
 			throw new NoSuchFileException("output", e);
 		}
+
+		if (listener != null) {
+			listener.patchFinished(stats);
+		}
 	}
 
 	/**
 	 * Computes the work file and returns it
 	 */
 	public List<T> computeWorkFile() {
-		List<T> workLines = new ArrayList<T>(baseLines);
+		DiffStats stats = new DiffStats(format.getName());
+		List<T> workLines;
+		try {
+			workLines = computeWorkFile(null, stats);
+		} catch (IOException e) {
+			throw new NoSuchFileException("baseInputStream", e);
+		}
+
+		if (listener != null) {
+			listener.patchFinished(stats);
+		}
+		return workLines;
+	}
+
+	/**
+	 * Computes the work file, and when streaming writes all but the last
+	 * chunk of it to <tt>flushTo</tt> if it isn't <tt>null</tt>
+	 */
+	private List<T> computeWorkFile(OutputStream flushTo, DiffStats stats) throws IOException {
+		// Measuring allocations isn't free, so only do it if anyone's
+		// listening
+		long allocatedBefore = listener == null ? -1 : Utils.getAllocatedBytes();
+		Object event = DiffEvents.INSTANCE.beginPatch();
+		long start = System.nanoTime();
 
+		// Start off with an empty list of whatever type the diff format uses
+		List<T> workLines = format.copyElements(Collections.<T> emptyList(), 0, 0);
+		long bytesRead = this.bytesRead;
+		if (baseLines == null) {
+			openBaseStream();
+			try {
+				applyPatch(workLines, flushTo);
+			} finally {
+				Utils.closeQuietly(baseInput);
+			}
+			bytesRead += countingBaseInput.getCount();
+		} else {
+			applyPatch(workLines, null);
+		}
+
+		stats.setComputeNanos(System.nanoTime() - start);
+		if (allocatedBefore != -1) {
+			stats.setAllocatedBytes(Utils.getAllocatedBytes() - allocatedBefore);
+		}
+		stats.setReadNanos(readNanos);
+		stats.setBytesRead(bytesRead);
+		int baseElements = baseLines == null ? baseLinesStreamed : baseLines.size();
+		stats.setBaseElements(baseElements);
+		stats.setPatch(patch);
+		stats.setWorkElements(baseElements + getSizeChange());
+		DiffEvents.INSTANCE.endPatch(event, format, baseLines == null, stats);
+		return workLines;
+	}
+
+	/**
+	 * Returns how many more lines the work file has than the base file
+	 */
+	private int getSizeChange() {
+		int sizeChange = 0;
+		for (Addition<T> addition : patch.getAdditions()) {
+			sizeChange += addition.getLength();
+		}
+		for (Deletion<T> deletion : patch.getDeletions()) {
+			sizeChange -= deletion.getLength();
+		}
+		return sizeChange;
+	}
+
+	private void openBaseStream() {
+		if (baseStream != null) {
+			throw new IllegalStateException("The base file has already been streamed");
+		}
+		try {
+			countingBaseInput = new CountingInputStream(baseInput);
+			baseStream = format.streamElementsFromBaseFile(countingBaseInput);
+		} catch (IOException e) {
+			throw new NoSuchFileException("baseInputStream", e);
+		}
+	}
+
+	/**
+	 * Appends the lines of the work file to the given list. This is done in a
+	 * single pass through the base lines, copying over the unchanged runs of
+	 * lines and adding the added lines in between them, so the changes in the
+	 * patch must be in order. If <tt>flushTo</tt> isn't <tt>null</tt>, the work
+	 * lines are written to it and removed from the list every so often
+	 */
+	void applyPatch(List<T> workLines, OutputStream flushTo) throws IOException {
 		List<Addition<T>> additions = patch.getAdditions();
 		List<Deletion<T>> deletions = patch.getDeletions();
-		int additionIndex = additions.size() - 1;
-		int deletionIndex = deletions.size() - 1;
-		Deletion<T> lastDeletion = new Deletion<T>(-1, -1);
-		while (additionIndex >= 0 || deletionIndex >= 0) {
-			Addition<T> addition = additionIndex >= 0 ? additions.get(additionIndex) : null;
-			Deletion<T> deletion = deletionIndex >= 0 ? deletions.get(deletionIndex) : null;
-			boolean deletionFirst;
-			if (addition == null) {
-				deletionFirst = true;
-			} else if (deletion == null) {
-				deletionFirst = false;
-			} else {
-				deletionFirst = deletion.getStart() >= addition.getStart();
+		int additionIndex = 0;
+		int deletionIndex = 0;
+		int indexInBase = 0;
+		while (additionIndex < additions.size() || deletionIndex < deletions.size()) {
+			// Find the next place where the patch changes anything
+			int nextAddition = additionIndex < additions.size() ? additions.get(additionIndex).getStart()
+					: Integer.MAX_VALUE;
+			int nextDeletion = deletionIndex < deletions.size() ? deletions.get(deletionIndex).getStart() - 1
+					: Integer.MAX_VALUE;
+			int next = Math.min(nextAddition, nextDeletion);
+			if (next < indexInBase) {
+				throw new IllegalStateException("The changes in the patch overlap or are out of order");
 			}
 
-			if (deletionFirst) {
-				int start = deletion.getStart();
-				int length = deletion.getLength();
-				for (int i = 0; i < length; i++) {
-					workLines.remove(start - 1);
+			copyBaseLines(indexInBase, next, workLines, flushTo);
+			indexInBase = next;
+
+			if (next == nextAddition) {
+				Addition<T> addition = additions.get(additionIndex);
+				if (baseLines == null && addition instanceof Copy) {
+					throw new IllegalStateException("Cannot copy base lines while streaming the base file");
 				}
-				deletionIndex--;
-				lastDeletion = deletion;
+				if (addition instanceof Copy && ((Copy<T>) addition).getSourceStart() - 1 > baseLines.size()
+						- addition.getLength()) {
+					throw new IllegalStateException("The patch copies lines past the end of the base file");
+				}
+				List<T> addedLines = addition.getAddedLines(baseLines);
+				format.appendElements(workLines, addedLines, 0, addedLines.size());
+				additionIndex++;
 			} else {
-				int start = addition.getStart();
-				if (start == lastDeletion.getStart()) {
-					start -= lastDeletion.getLength();
+				int length = deletions.get(deletionIndex).getLength();
+				for (int i = 0; baseLines == null && i < length; i++) {
+					nextBaseLine();
 				}
-				workLines.addAll(start, addition.getAddedLines());
-				additionIndex--;
+				indexInBase += length;
+				deletionIndex++;
 			}
 		}
-		return workLines;
+
+		// Copy over everything after the last change
+		if (baseLines == null) {
+			while (baseStream.hasNext()) {
+				baseLinesStreamed++;
+				addWorkLine(baseStream.next(), workLines, flushTo);
+			}
+		} else {
+			copyBaseLines(indexInBase, baseLines.size(), workLines, flushTo);
+		}
+	}
+
+	private void copyBaseLines(int fromIndex, int toIndex, List<T> workLines, OutputStream flushTo)
+			throws IOException {
+		if (baseLines == null) {
+			for (int i = fromIndex; i < toIndex; i++) {
+				addWorkLine(nextBaseLine(), workLines, flushTo);
+			}
+		} else {
+			if (toIndex > baseLines.size()) {
+				throw new IllegalStateException("The patch changes lines past the end of the base file");
+			}
+			format.appendElements(workLines, baseLines, fromIndex, toIndex);
+		}
+	}
+
+	private T nextBaseLine() {
+		if (!baseStream.hasNext()) {
+			throw new IllegalStateException("The patch changes lines past the end of the base file");
+		}
+		baseLinesStreamed++;
+		return baseStream.next();
+	}
+
+	private void addWorkLine(T line, List<T> workLines, OutputStream flushTo) throws IOException {
+		// Flush before adding rather than after, so that there's always a
+		// last chunk left over at the end
+		if (flushTo != null && workLines.size() >= CHUNK_SIZE) {
+			format.appendElementsToWorkFile(workLines, flushTo);
+			workLines.clear();
+		}
+		workLines.add(line);
 	}
 
 	public static class Builder<T> {
 		private IPatchFileFormat patchFileFormat = PatchFileFormats.TEXT;
 		private IDiffFormat<T> format;
 		private List<T> baseLines;
+		private InputStream baseInput;
+		private File baseFile;
+		private boolean streaming = false;
 		private Patch<T> patch;
 		private OutputStream output;
+		private IDiffListener listener;
+		private long readNanos;
+		private long bytesRead;
 
 		public Builder<T> setPatchFileFormat(IPatchFileFormat format) {
 			this.patchFileFormat = format;
@@ -151,24 +325,45 @@ public class Patcher<T> {
 			return this;
 		}
 
+		/**
+		 * Sets whether to read the base file as the work file is written,
+		 * rather than reading it all into memory first. Only the changes in
+		 * the patch are kept in memory, but the patch can't contain any
+		 * {@link Patch.Copy}s. This only has an effect if the base file is
+		 * given as a file or input stream
+		 */
+		public Builder<T> setStreaming(boolean streaming) {
+			this.streaming = streaming;
+			return this;
+		}
+
 		public Builder<T> setBaseLines(List<T> baseLines) {
 			this.baseLines = baseLines;
+			this.baseInput = null;
+			this.baseFile = null;
 			return this;
 		}
 
+		/**
+		 * Sets the input stream to read the base file from. It isn't read until
+		 * {@link #build()}, or until the work file is written when streaming
+		 */
 		public Builder<T> setBaseInputStream(InputStream inputStream) {
-			if (format == null) {
-				throw new IllegalStateException("Cannot read base file before setting format");
-			}
-			try {
-				return setBaseLines(format.readElementsFromBaseFile(inputStream));
-			} catch (IOException e) {
-				throw new NoSuchFileException("inputStream", e);
-			}
+			this.baseInput = inputStream;
+			this.baseLines = null;
+			this.baseFile = null;
+			return this;
 		}
 
+		/**
+		 * Sets the base file. It isn't read until {@link #build()}, and then
+		 * it is read from a memory mapping of the file where possible
+		 */
 		public Builder<T> setBaseFile(File file) {
-			return setBaseInputStream(Utils.getFileInputStream(file));
+			this.baseFile = file;
+			this.baseLines = null;
+			this.baseInput = null;
+			return this;
 		}
 
 		public Builder<T> setPatch(Patch<T> patch) {
@@ -181,7 +376,13 @@ public class Patcher<T> {
 				throw new IllegalStateException("patchFileFormat cannot be null");
 			}
 			try {
-				PatchInfo<T> info = patchFileFormat.readPatch(inputStream);
+				Object event = DiffEvents.INSTANCE.beginReadPatch();
+				long start = System.nanoTime();
+				CountingInputStream countingIn = new CountingInputStream(inputStream);
+				PatchInfo<T> info = patchFileFormat.readPatch(countingIn);
+				readNanos += System.nanoTime() - start;
+				bytesRead += countingIn.getCount();
+				DiffEvents.INSTANCE.endReadPatch(event, patchFileFormat, info, countingIn.getCount());
 				return setDiffFormat(info.getFormat()).setPatch(info.getPatch());
 			} catch (IOException e) {
 				throw new NoSuchFileException("inputStream", e);
@@ -189,7 +390,7 @@ public class Patcher<T> {
 		}
 
 		public Builder<T> setPatchFile(File file) throws InvalidPatchFormatException {
-			return setPatchInputStream(Utils.getFileInputStream(file));
+			return setPatchInputStream(Utils.getMappedFileInputStream(file));
 		}
 
 		public Builder<T> setOutput(OutputStream outputStream) {
@@ -201,11 +402,41 @@ public class Patcher<T> {
 			return setOutput(Utils.getFileOutputStream(outputFile));
 		}
 
+		/**
+		 * Sets the listener which is told the measurements of each work file
+		 * computed by the patcher
+		 */
+		public Builder<T> setListener(IDiffListener listener) {
+			this.listener = listener;
+			return this;
+		}
+
+		private List<T> readElements(InputStream in) throws IOException {
+			Object event = DiffEvents.INSTANCE.beginRead();
+			long start = System.nanoTime();
+			CountingInputStream countingIn = new CountingInputStream(in);
+			List<T> elements = format.readElementsFromBaseFile(countingIn);
+			readNanos += System.nanoTime() - start;
+			bytesRead += countingIn.getCount();
+			DiffEvents.INSTANCE.endRead(event, format, countingIn.getCount(), elements.size());
+			return elements;
+		}
+
+		private List<T> readElements(File file) {
+			Object event = DiffEvents.INSTANCE.beginRead();
+			long start = System.nanoTime();
+			List<T> elements = Utils.readElements(format, file);
+			readNanos += System.nanoTime() - start;
+			bytesRead += file.length();
+			DiffEvents.INSTANCE.endRead(event, format, file.length(), elements.size());
+			return elements;
+		}
+
 		public Patcher<T> build() {
 			if (format == null) {
 				throw new IllegalStateException("format == null");
 			}
-			if (baseLines == null) {
+			if (baseLines == null && baseInput == null && baseFile == null) {
 				throw new IllegalStateException("baseLines == null");
 			}
 			if (patch == null) {
@@ -214,7 +445,24 @@ public class Patcher<T> {
 			if (output == null) {
 				throw new IllegalStateException("output == null");
 			}
-			return new Patcher<T>(format, baseLines, patch, output);
+			if (baseFile != null) {
+				if (streaming) {
+					setBaseInputStream(Utils.getMappedFileInputStream(baseFile));
+				} else {
+					setBaseLines(readElements(baseFile));
+				}
+			}
+			if (streaming && baseInput != null) {
+				return new Patcher<T>(format, null, baseInput, patch, output, listener, readNanos, bytesRead);
+			}
+			if (baseInput != null) {
+				try {
+					setBaseLines(readElements(baseInput));
+				} catch (IOException e) {
+					throw new NoSuchFileException("inputStream", e);
+				}
+			}
+			return new Patcher<T>(format, baseLines, null, patch, output, listener, readNanos, bytesRead);
 		}
 	}
 
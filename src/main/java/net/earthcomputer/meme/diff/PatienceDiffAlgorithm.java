@@ -0,0 +1,158 @@
+package net.earthcomputer.meme.diff;
+
+/**
+ * The patience diff algorithm. Lines which appear exactly once in both the
+ * base and the work are used as anchors, the longest sequence of anchors which
+ * appear in the same order in both is matched up, and the gaps between them
+ * are diffed recursively. Gaps which have no unique lines are handed over to
+ * Myers' algorithm.
+ * 
+ * This tends to produce more readable patches than Myers' algorithm for source
+ * files, where blank lines and braces would otherwise get matched up with each
+ * other
+ */
+public class PatienceDiffAlgorithm implements IDiffAlgorithm {
+
+	// Beyond this depth, just give up on looking for anchors
+	private static final int MAX_DEPTH = 64;
+
+	@Override
+	public String getName() {
+		return "patience";
+	}
+
+	@Override
+	public void computeChanges(int[] baseLines, int baseStart, int baseEnd, int[] workLines, int workStart,
+			int workEnd, int idCount, boolean[] deleted, boolean[] added) {
+		new Search(baseLines, workLines, idCount, deleted, added).diff(baseStart, baseEnd, workStart, workEnd, 0);
+	}
+
+	static class Search {
+		private final int[] base;
+		private final int[] work;
+		private final int idCount;
+		private final boolean[] deleted;
+		private final boolean[] added;
+
+		// Indexed by ID. Only used while finding anchors, and cleared again
+		// afterwards
+		private final int[] baseCounts;
+		private final int[] workCounts;
+		private final int[] baseIndexes;
+		private final int[] workIndexes;
+
+		Search(int[] base, int[] work, int idCount, boolean[] deleted, boolean[] added) {
+			this.base = base;
+			this.work = work;
+			this.idCount = idCount;
+			this.deleted = deleted;
+			this.added = added;
+			this.baseCounts = new int[idCount];
+			this.workCounts = new int[idCount];
+			this.baseIndexes = new int[idCount];
+			this.workIndexes = new int[idCount];
+		}
+
+		void diff(int baseStart, int baseEnd, int workStart, int workEnd, int depth) {
+			// Skip the common prefix and suffix, they never contain any
+			// changes
+			while (baseStart < baseEnd && workStart < workEnd && base[baseStart] == work[workStart]) {
+				baseStart++;
+				workStart++;
+			}
+			while (baseStart < baseEnd && workStart < workEnd && base[baseEnd - 1] == work[workEnd - 1]) {
+				baseEnd--;
+				workEnd--;
+			}
+
+			if (baseStart == baseEnd || workStart == workEnd) {
+				for (int i = baseStart; i < baseEnd; i++) {
+					deleted[i] = true;
+				}
+				for (int j = workStart; j < workEnd; j++) {
+					added[j] = true;
+				}
+				return;
+			}
+
+			int[] anchors = depth < MAX_DEPTH ? findAnchors(baseStart, baseEnd, workStart, workEnd) : new int[0];
+			if (anchors.length == 0) {
+				DiffAlgorithms.MYERS.computeChanges(base, baseStart, baseEnd, work, workStart, workEnd, idCount,
+						deleted, added);
+				return;
+			}
+
+			for (int i = 0; i < anchors.length; i += 2) {
+				diff(baseStart, anchors[i], workStart, anchors[i + 1], depth + 1);
+				baseStart = anchors[i] + 1;
+				workStart = anchors[i + 1] + 1;
+			}
+			diff(baseStart, baseEnd, workStart, workEnd, depth + 1);
+		}
+
+		/**
+		 * Returns the longest sequence of lines which appear exactly once in
+		 * both ranges, and appear in the same order in both ranges. The
+		 * returned array contains the base index followed by the work index of
+		 * each of these lines
+		 */
+		int[] findAnchors(int baseStart, int baseEnd, int workStart, int workEnd) {
+			// Count the occurrences of each line
+			for (int i = baseStart; i < baseEnd; i++) {
+				if (baseCounts[base[i]]++ == 0) {
+					baseIndexes[base[i]] = i;
+				}
+			}
+			for (int j = workStart; j < workEnd; j++) {
+				if (baseCounts[work[j]] != 0) {
+					workCounts[work[j]]++;
+					workIndexes[work[j]] = j;
+				}
+			}
+
+			// Patience sort the unique lines, in base order, by their work
+			// index. Each pile is represented by the base index of the line on
+			// the top of it, and each line links to the top of the previous
+			// pile at the time it was placed
+			int[] piles = new int[baseEnd - baseStart];
+			int[] previous = new int[baseEnd - baseStart];
+			int pileCount = 0;
+			for (int i = baseStart; i < baseEnd; i++) {
+				int id = base[i];
+				if (baseCounts[id] != 1 || workCounts[id] != 1) {
+					continue;
+				}
+				int low = 0, high = pileCount;
+				while (low < high) {
+					int mid = (low + high) >>> 1;
+					if (workIndexes[base[piles[mid]]] < workIndexes[id]) {
+						low = mid + 1;
+					} else {
+						high = mid;
+					}
+				}
+				previous[i - baseStart] = low == 0 ? -1 : piles[low - 1];
+				piles[low] = i;
+				if (low == pileCount) {
+					pileCount++;
+				}
+			}
+
+			// The longest increasing subsequence ends on top of the last pile
+			int[] anchors = new int[pileCount * 2];
+			for (int k = pileCount - 1, i = pileCount == 0 ? -1 : piles[pileCount - 1]; i != -1; k--) {
+				anchors[k * 2] = i;
+				anchors[k * 2 + 1] = workIndexes[base[i]];
+				i = previous[i - baseStart];
+			}
+
+			for (int i = baseStart; i < baseEnd; i++) {
+				baseCounts[base[i]] = 0;
+				workCounts[base[i]] = 0;
+			}
+
+			return anchors;
+		}
+	}
+
+}
@@ -3,6 +3,7 @@ package net.earthcomputer.meme.diff;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.charset.Charset;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -34,10 +35,14 @@ public class TextPatchFileFormat implements IPatchFileFormat {
 	public <T> PatchInfo<T> readPatch(InputStream in) throws InvalidPatchFormatException {
 		PatchInfo<T> patchInfo = new PatchInfo<T>();
 		patchInfo.setPatch(new Patch<T>());
-		Scanner scanner = new Scanner(in);
+		// Split the lines the same way base files are split, so that a line
+		// with e.g. U+2028 in it isn't split into two when read back
+		Charset charset = Charset.defaultCharset();
+		Iterator<String> lines = LineReader.canSplit(charset) ? new LineReader(in, charset, false)
+				: Utils.lines(new Scanner(in));
 
 		try {
-			String header = scanner.nextLine();
+			String header = lines.next();
 			Matcher headerMatcher = HEADER_PATTERN.matcher(header);
 			if (!headerMatcher.matches()) {
 				throw new InvalidPatchFormatException("Invalid header \"" + header + "\"");
@@ -46,7 +51,7 @@ public class TextPatchFileFormat implements IPatchFileFormat {
 
 			switch (patchVersion) {
 			case 0:
-				return readPatchVersion0(patchInfo, scanner);
+				return readPatchVersion0(patchInfo, lines);
 			default:
 				throw new InvalidPatchFormatException("Unsupported patch file version: " + patchVersion);
 			}
@@ -55,14 +60,14 @@ public class TextPatchFileFormat implements IPatchFileFormat {
 		} catch (Exception e) {
 			throw new InvalidPatchFormatException("Miscellaneous error");
 		} finally {
-			scanner.close();
+			Utils.closeQuietly(in);
 		}
 	}
 
 	@SuppressWarnings("unchecked")
-	private static <T> PatchInfo<T> readPatchVersion0(PatchInfo<T> patchInfo, Scanner scanner)
+	private static <T> PatchInfo<T> readPatchVersion0(PatchInfo<T> patchInfo, Iterator<String> lines)
 			throws InvalidPatchFormatException {
-		String formatLine = scanner.nextLine();
+		String formatLine = lines.next();
 		Matcher formatMatcher = DIFF_FORMAT_PATTERN.matcher(formatLine);
 		if (!formatMatcher.matches()) {
 			throw new InvalidPatchFormatException("Invalid format line: \"" + formatLine + "\"");
@@ -71,8 +76,8 @@ public class TextPatchFileFormat implements IPatchFileFormat {
 		if (patchInfo.getFormat() == null) {
 			throw new InvalidPatchFormatException("Unrecognized format: \"" + formatMatcher.group(1) + "\"");
 		}
-		while (scanner.hasNextLine()) {
-			String line = scanner.nextLine();
+		while (lines.hasNext()) {
+			String line = lines.next();
 			Matcher matcher = DELETION_PATTERN.matcher(line);
 			if (matcher.matches()) {
 				patchInfo.getPatch().addDeletion(
@@ -82,7 +87,7 @@ public class TextPatchFileFormat implements IPatchFileFormat {
 				if (matcher.matches()) {
 					int additionLength = Integer.parseInt(matcher.group(2));
 
-					List<T> addedLines = patchInfo.getFormat().readElementsFromPatchFile(scanner, additionLength);
+					List<T> addedLines = patchInfo.getFormat().readElementsFromPatchFile(lines, additionLength);
 
 					patchInfo.getPatch().addAddition(
 							new Addition<T>(addedLines, Integer.parseInt(matcher.group(1)), additionLength));
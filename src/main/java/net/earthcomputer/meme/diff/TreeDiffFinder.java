@@ -0,0 +1,354 @@
+package net.earthcomputer.meme.diff;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Finds the differences between every file in the base directory and the work
+ * directory, and writes them all to a single {@link PatchBundle}. Files which
+ * are in both directories are diffed in parallel
+ */
+public class TreeDiffFinder<T> {
+
+	@SuppressWarnings("unchecked")
+	public static <T> void main(String[] args) {
+		if (args.length < 3 || args.length > 6) {
+			System.err.println(
+					"java -cp memediff.jar net.earthcomputer.meme.diff.TreeDiffFinder <base-dir> <work-dir> <output-bundle> [patch-format] [patch-file-format] [diff-algorithm]");
+			System.exit(1);
+			return;
+		}
+
+		File baseDirectory = new File(args[0]);
+		if (!baseDirectory.isDirectory()) {
+			System.err.println("The directory \"" + baseDirectory + "\" does not exist");
+			System.exit(1);
+			return;
+		}
+
+		File workDirectory = new File(args[1]);
+		if (!workDirectory.isDirectory()) {
+			System.err.println("The directory \"" + workDirectory + "\" does not exist");
+			System.exit(1);
+			return;
+		}
+
+		File bundleFile = new File(args[2]);
+		if (bundleFile.exists()) {
+			System.err.println("The file \"" + bundleFile + "\" already exists and must be deleted first");
+			System.exit(1);
+			return;
+		}
+
+		IDiffFormat<T> patchFormat = (IDiffFormat<T>) DiffFormats.NORMAL;
+		if (args.length > 3) {
+			patchFormat = (IDiffFormat<T>) DiffFormats.getByName(args[3]);
+			if (patchFormat == null) {
+				patchFormat = (IDiffFormat<T>) DiffFormats.NORMAL;
+			}
+		}
+
+		IPatchFileFormat patchFileFormat = PatchFileFormats.TEXT;
+		if (args.length > 4) {
+			patchFileFormat = PatchFileFormats.byName(args[4]);
+			if (patchFileFormat == null) {
+				patchFileFormat = PatchFileFormats.TEXT;
+			}
+		}
+
+		IDiffAlgorithm algorithm = DiffAlgorithms.MYERS;
+		if (args.length > 5) {
+			algorithm = DiffAlgorithms.getByName(args[5]);
+			if (algorithm == null) {
+				algorithm = DiffAlgorithms.MYERS;
+			}
+		}
+
+		try {
+			new TreeDiffFinder.Builder<T>().setPatchFileFormat(patchFileFormat).setDiffFormat(patchFormat)
+					.setDiffAlgorithm(algorithm).setBaseDirectory(baseDirectory).setWorkDirectory(workDirectory)
+					.setOutputFile(bundleFile).build().writeBundle();
+		} catch (IOException e) {
+			System.err.println("An I/O error occurred");
+			e.printStackTrace();
+			System.exit(1);
+			return;
+		}
+	}
+
+	private final IPatchFileFormat patchFileFormat;
+	private final IDiffFormat<T> format;
+	private final IDiffAlgorithm algorithm;
+	private final File baseDirectory;
+	private final File workDirectory;
+	private final ForkJoinPool pool;
+	private final OutputStream output;
+	private final IDiffListener listener;
+	private final PatchCache cache;
+
+	private TreeDiffFinder(IPatchFileFormat patchFileFormat, IDiffFormat<T> format, IDiffAlgorithm algorithm,
+			File baseDirectory, File workDirectory, ForkJoinPool pool, OutputStream output, IDiffListener listener,
+			PatchCache cache) {
+		this.patchFileFormat = patchFileFormat;
+		this.format = format;
+		this.algorithm = algorithm;
+		this.baseDirectory = baseDirectory;
+		this.workDirectory = workDirectory;
+		this.pool = pool;
+		this.output = output;
+		this.listener = listener;
+		this.cache = cache;
+	}
+
+	/**
+	 * Diffs the directories and writes the bundle. The entries are written in
+	 * order of their paths, as soon as each one is ready
+	 */
+	public void writeBundle() throws IOException {
+		SortedSet<String> basePaths = listFiles(baseDirectory);
+		SortedSet<String> workPaths = listFiles(workDirectory);
+		SortedSet<String> allPaths = new TreeSet<String>(basePaths);
+		allPaths.addAll(workPaths);
+
+		// Start diffing all the files in both directories before writing
+		// anything
+		List<String> paths = new ArrayList<String>(allPaths.size());
+		List<DiffTask> patchFiles = new ArrayList<DiffTask>(allPaths.size());
+		for (String path : allPaths) {
+			paths.add(path);
+			if (basePaths.contains(path) && workPaths.contains(path)) {
+				DiffTask task = new DiffTask(path);
+				pool.execute(task);
+				patchFiles.add(task);
+			} else {
+				patchFiles.add(null);
+			}
+		}
+
+		try {
+			PatchBundle.Writer writer = new PatchBundle.Writer(output, patchFileFormat);
+			for (int i = 0; i < paths.size(); i++) {
+				String path = paths.get(i);
+				if (patchFiles.get(i) != null) {
+					byte[] patchFile = patchFiles.get(i).getPatchFile();
+					if (patchFile != null) {
+						writer.writeChanged(path, patchFile);
+					}
+				} else if (basePaths.contains(path)) {
+					writer.writeRemoved(path);
+				} else {
+					writer.writeAdded(path, new File(workDirectory, path));
+				}
+			}
+			writer.close();
+		} finally {
+			for (DiffTask patchFile : patchFiles) {
+				if (patchFile != null) {
+					patchFile.cancel(false);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the patch file for the file at the given path in both
+	 * directories, or <tt>null</tt> if it hasn't changed
+	 */
+	private byte[] diffFile(String path) throws IOException {
+		File baseFile = new File(baseDirectory, path);
+		File workFile = new File(workDirectory, path);
+		if (Utils.contentEquals(baseFile, workFile)) {
+			return null;
+		}
+		ByteArrayOutputStream patchFile = new ByteArrayOutputStream();
+		new DiffFinder.Builder<T>().setPatchFileFormat(patchFileFormat).setDiffFormat(format)
+				.setDiffAlgorithm(algorithm).setDetectCopies(patchFileFormat.supportsCopies()).setBaseFile(baseFile)
+				.setWorkFile(workFile).setOutputStream(patchFile).setListener(listener).setPatchCache(cache)
+				.setCompareFiles(false).build().writePatchFile();
+		return patchFile.toByteArray();
+	}
+
+	/**
+	 * Diffs a file which is in both directories, keeping hold of the
+	 * exception if it fails so it can be thrown on the writing thread
+	 */
+	private class DiffTask extends RecursiveTask<byte[]> {
+		private static final long serialVersionUID = 1L;
+
+		private final String path;
+		private IOException exception;
+
+		DiffTask(String path) {
+			this.path = path;
+		}
+
+		@Override
+		protected byte[] compute() {
+			try {
+				return diffFile(path);
+			} catch (IOException e) {
+				exception = e;
+				return null;
+			}
+		}
+
+		/**
+		 * Waits for the patch file and returns it, or returns <tt>null</tt>
+		 * if the file hasn't changed
+		 */
+		public byte[] getPatchFile() throws IOException {
+			byte[] patchFile = join();
+			if (exception != null) {
+				throw exception;
+			}
+			return patchFile;
+		}
+	}
+
+	/**
+	 * Returns the paths of all the regular files in the given directory and
+	 * its subdirectories, relative to it and separated by <tt>/</tt>. Symbolic
+	 * links are followed, so a linked file is treated as a copy of the file it
+	 * links to. Anything else which isn't a directory, such as a broken link,
+	 * can't be diffed, so is an error rather than being left out
+	 */
+	static SortedSet<String> listFiles(File directory) throws IOException {
+		final Path root = directory.toPath();
+		final SortedSet<String> paths = new TreeSet<String>();
+		FileVisitor<Path> visitor = new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+				if (!attributes.isRegularFile()) {
+					throw new IOException("Not a regular file: " + file);
+				}
+				StringBuilder path = new StringBuilder();
+				for (Path name : root.relativize(file)) {
+					if (path.length() != 0) {
+						path.append('/');
+					}
+					path.append(name);
+				}
+				paths.add(path.toString());
+				return FileVisitResult.CONTINUE;
+			}
+		};
+		Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, visitor);
+		return paths;
+	}
+
+	public static class Builder<T> {
+		private IPatchFileFormat patchFileFormat = PatchFileFormats.TEXT;
+		private IDiffFormat<T> format;
+		private IDiffAlgorithm algorithm = DiffAlgorithms.MYERS;
+		private File baseDirectory;
+		private File workDirectory;
+		private ForkJoinPool pool = ForkJoinPool.commonPool();
+		private OutputStream output;
+		private IDiffListener listener;
+		private PatchCache cache;
+
+		public Builder<T> setPatchFileFormat(IPatchFileFormat format) {
+			this.patchFileFormat = format;
+			return this;
+		}
+
+		public Builder<T> setDiffFormat(IDiffFormat<T> format) {
+			this.format = format;
+			return this;
+		}
+
+		public Builder<T> setDiffAlgorithm(IDiffAlgorithm algorithm) {
+			this.algorithm = algorithm;
+			return this;
+		}
+
+		public Builder<T> setBaseDirectory(File baseDirectory) {
+			this.baseDirectory = baseDirectory;
+			return this;
+		}
+
+		public Builder<T> setWorkDirectory(File workDirectory) {
+			this.workDirectory = workDirectory;
+			return this;
+		}
+
+		/**
+		 * Sets the pool which the files are diffed on. Defaults to the common
+		 * pool
+		 */
+		public Builder<T> setPool(ForkJoinPool pool) {
+			this.pool = pool;
+			return this;
+		}
+
+		public Builder<T> setOutputStream(OutputStream output) {
+			this.output = output;
+			return this;
+		}
+
+		public Builder<T> setOutputFile(File output) {
+			return setOutputStream(Utils.getFileOutputStream(output));
+		}
+
+		/**
+		 * Sets the listener which is told the measurements of each changed
+		 * file as it's diffed. It is called from multiple threads at once
+		 */
+		public Builder<T> setListener(IDiffListener listener) {
+			this.listener = listener;
+			return this;
+		}
+
+		/**
+		 * Sets the cache to look up the patch for each changed file in, so
+		 * that files which were diffed before aren't diffed again
+		 */
+		public Builder<T> setPatchCache(PatchCache cache) {
+			this.cache = cache;
+			return this;
+		}
+
+		public TreeDiffFinder<T> build() {
+			if (patchFileFormat == null) {
+				throw new IllegalStateException("patchFileFormat cannot be null");
+			}
+			if (format == null) {
+				throw new IllegalStateException("format not set");
+			}
+			if (algorithm == null) {
+				throw new IllegalStateException("algorithm cannot be null");
+			}
+			if (baseDirectory == null) {
+				throw new IllegalStateException("baseDirectory not set");
+			}
+			if (workDirectory == null) {
+				throw new IllegalStateException("workDirectory not set");
+			}
+			if (pool == null) {
+				throw new IllegalStateException("pool cannot be null");
+			}
+			if (output == null) {
+				throw new IllegalStateException("output not set");
+			}
+			return new TreeDiffFinder<T>(patchFileFormat, format, algorithm, baseDirectory, workDirectory, pool,
+					output, listener, cache);
+		}
+	}
+
+}
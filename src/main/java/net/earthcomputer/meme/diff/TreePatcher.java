@@ -0,0 +1,364 @@
+package net.earthcomputer.meme.diff;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import net.earthcomputer.meme.diff.PatchBundle.Entry;
+
+/**
+ * Applies a {@link PatchBundle} to a base directory to produce the work
+ * directory. The files are patched in parallel, and each one is written to a
+ * temporary file which is then moved into place, so no file is ever left half
+ * written. A file which can't be patched doesn't stop the others from being
+ * patched
+ */
+public class TreePatcher {
+
+	public static void main(String[] args) {
+		if (args.length != 3) {
+			System.err.println(
+					"java -cp memediff.jar net.earthcomputer.meme.diff.TreePatcher <base-dir> <bundle> <output-work-dir>");
+			System.exit(1);
+			return;
+		}
+
+		File baseDirectory = new File(args[0]);
+		if (!baseDirectory.isDirectory()) {
+			System.err.println("The directory \"" + baseDirectory + "\" does not exist");
+			System.exit(1);
+			return;
+		}
+
+		File bundleFile = new File(args[1]);
+		if (!bundleFile.isFile()) {
+			System.err.println("The file \"" + bundleFile + "\" does not exist");
+			System.exit(1);
+			return;
+		}
+
+		File workDirectory = new File(args[2]);
+
+		List<Failure> failures;
+		try {
+			failures = new TreePatcher.Builder().setBaseDirectory(baseDirectory).setBundleFile(bundleFile)
+					.setOutputDirectory(workDirectory).build().writeWorkDirectory();
+		} catch (InvalidPatchFormatException e) {
+			System.err.println("The bundle had invalid format: " + e.getMessage());
+			System.exit(1);
+			return;
+		} catch (IOException e) {
+			System.err.println("An I/O error occurred");
+			e.printStackTrace();
+			System.exit(1);
+			return;
+		}
+
+		if (!failures.isEmpty()) {
+			for (Failure failure : failures) {
+				System.err.println("Failed to patch \"" + failure.getPath() + "\": " + failure.getCause());
+			}
+			System.exit(1);
+			return;
+		}
+	}
+
+	private final PatchBundle bundle;
+	private final File baseDirectory;
+	private final File outputDirectory;
+	private final ForkJoinPool pool;
+	private final IDiffListener listener;
+
+	private TreePatcher(PatchBundle bundle, File baseDirectory, File outputDirectory, ForkJoinPool pool,
+			IDiffListener listener) {
+		this.bundle = bundle;
+		this.baseDirectory = baseDirectory;
+		this.outputDirectory = outputDirectory;
+		this.pool = pool;
+		this.listener = listener;
+	}
+
+	/**
+	 * Patches every file in the bundle, and copies the files in the base
+	 * directory which aren't in the bundle unless the output directory is the
+	 * base directory. Returns the files which couldn't be written, if any
+	 */
+	public List<Failure> writeWorkDirectory() throws IOException {
+		boolean inPlace = Files.exists(outputDirectory.toPath())
+				&& Files.isSameFile(baseDirectory.toPath(), outputDirectory.toPath());
+
+		List<FileTask> tasks = new ArrayList<FileTask>();
+		Set<String> bundlePaths = new HashSet<String>();
+		for (final Entry entry : bundle.getEntries()) {
+			bundlePaths.add(entry.getPath());
+			tasks.add(new FileTask(entry.getPath()) {
+				@Override
+				protected void writeFile() throws Exception {
+					writeEntry(entry);
+				}
+			});
+		}
+		if (!inPlace) {
+			for (final String path : TreeDiffFinder.listFiles(baseDirectory)) {
+				if (!bundlePaths.contains(path)) {
+					tasks.add(new FileTask(path) {
+						@Override
+						protected void writeFile() throws Exception {
+							copyUnchanged(path);
+						}
+					});
+				}
+			}
+		}
+
+		for (FileTask task : tasks) {
+			pool.execute(task);
+		}
+		List<Failure> failures = new ArrayList<Failure>();
+		for (FileTask task : tasks) {
+			task.join();
+			if (task.failure != null) {
+				failures.add(new Failure(task.path, task.failure));
+			}
+		}
+		return failures;
+	}
+
+	/**
+	 * Writes a single file, keeping hold of the exception if it fails rather
+	 * than throwing it
+	 */
+	private static abstract class FileTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final String path;
+		private Exception failure;
+
+		FileTask(String path) {
+			this.path = path;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				writeFile();
+			} catch (Exception e) {
+				failure = e;
+			}
+		}
+
+		protected abstract void writeFile() throws Exception;
+	}
+
+	private void writeEntry(Entry entry) throws Exception {
+		File outputFile = resolve(outputDirectory, entry.getPath());
+		switch (entry.getType()) {
+		case CHANGED:
+			writeChanged(entry, outputFile);
+			break;
+		case ADDED:
+			writeAdded(entry, outputFile);
+			break;
+		case REMOVED:
+			Files.deleteIfExists(outputFile.toPath());
+			break;
+		}
+	}
+
+	private void writeChanged(Entry entry, File outputFile) throws Exception {
+		File baseFile = resolve(baseDirectory, entry.getPath());
+		if (!baseFile.isFile()) {
+			throw new FileNotFoundException("The base file \"" + baseFile + "\" does not exist");
+		}
+		Path temp = createTempFile(outputFile);
+		OutputStream out = null;
+		try {
+			out = Utils.getFileOutputStream(temp.toFile());
+			IPatchFileFormat patchFileFormat = bundle.getPatchFileFormat();
+			// Copies need the whole base file in memory, anything else can be
+			// streamed
+			new Patcher.Builder<Object>().setPatchFileFormat(patchFileFormat)
+					.setPatchInputStream(new ByteBufferInputStream(entry.getContents()))
+					.setStreaming(!patchFileFormat.supportsCopies()).setBaseFile(baseFile).setOutput(out)
+					.setListener(listener).build().writeWorkFile();
+			moveIntoPlace(temp, outputFile);
+		} finally {
+			if (out != null) {
+				Utils.closeQuietly(out);
+			}
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private void writeAdded(Entry entry, File outputFile) throws IOException {
+		Path temp = createTempFile(outputFile);
+		try {
+			FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+			try {
+				ByteBuffer contents = entry.getContents();
+				while (contents.hasRemaining()) {
+					channel.write(contents);
+				}
+			} finally {
+				channel.close();
+			}
+			moveIntoPlace(temp, outputFile);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private void copyUnchanged(String path) throws IOException {
+		File outputFile = new File(outputDirectory, path);
+		Path temp = createTempFile(outputFile);
+		try {
+			Files.copy(new File(baseDirectory, path).toPath(), temp, StandardCopyOption.REPLACE_EXISTING);
+			moveIntoPlace(temp, outputFile);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Returns the file at the given bundle path in the given directory,
+	 * checking that it really is inside the directory. The bundle has already
+	 * checked its paths when it was read, this makes sure of it
+	 */
+	private static File resolve(File directory, String path) throws IOException {
+		Path root = directory.getAbsoluteFile().toPath().normalize();
+		File file = new File(directory, path);
+		Path normalized = file.getAbsoluteFile().toPath().normalize();
+		if (normalized.equals(root) || !normalized.startsWith(root)) {
+			throw new IOException("\"" + path + "\" is outside of \"" + directory + "\"");
+		}
+		return file;
+	}
+
+	/**
+	 * Creates a temporary file next to the given file, so that it can be
+	 * moved into place atomically
+	 */
+	private static Path createTempFile(File file) throws IOException {
+		Path directory = file.getAbsoluteFile().getParentFile().toPath();
+		Files.createDirectories(directory);
+		return Files.createTempFile(directory, "." + file.getName() + ".", ".tmp");
+	}
+
+	private static void moveIntoPlace(Path temp, File file) throws IOException {
+		try {
+			Files.move(temp, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * A file which couldn't be written, and why
+	 */
+	public static class Failure {
+		private final String path;
+		private final Throwable cause;
+
+		public Failure(String path, Throwable cause) {
+			this.path = path;
+			this.cause = cause;
+		}
+
+		/**
+		 * Returns the path of the file relative to the root of the tree,
+		 * separated by <tt>/</tt>
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		public Throwable getCause() {
+			return cause;
+		}
+
+		@Override
+		public String toString() {
+			return path + ": " + cause;
+		}
+	}
+
+	public static class Builder {
+		private PatchBundle bundle;
+		private File baseDirectory;
+		private File outputDirectory;
+		private ForkJoinPool pool = ForkJoinPool.commonPool();
+		private IDiffListener listener;
+
+		public Builder setBundle(PatchBundle bundle) {
+			this.bundle = bundle;
+			return this;
+		}
+
+		public Builder setBundleFile(File file) throws InvalidPatchFormatException {
+			return setBundle(PatchBundle.read(file));
+		}
+
+		public Builder setBaseDirectory(File baseDirectory) {
+			this.baseDirectory = baseDirectory;
+			return this;
+		}
+
+		/**
+		 * Sets the directory to write the work files to. This can be the base
+		 * directory, in which case the base directory is patched in place
+		 */
+		public Builder setOutputDirectory(File outputDirectory) {
+			this.outputDirectory = outputDirectory;
+			return this;
+		}
+
+		/**
+		 * Sets the pool which the files are patched on. Defaults to the common
+		 * pool
+		 */
+		public Builder setPool(ForkJoinPool pool) {
+			this.pool = pool;
+			return this;
+		}
+
+		/**
+		 * Sets the listener which is told the measurements of each changed
+		 * file as it's patched. It is called from multiple threads at once
+		 */
+		public Builder setListener(IDiffListener listener) {
+			this.listener = listener;
+			return this;
+		}
+
+		public TreePatcher build() {
+			if (bundle == null) {
+				throw new IllegalStateException("bundle == null");
+			}
+			if (baseDirectory == null) {
+				throw new IllegalStateException("baseDirectory == null");
+			}
+			if (outputDirectory == null) {
+				throw new IllegalStateException("outputDirectory == null");
+			}
+			if (pool == null) {
+				throw new IllegalStateException("pool == null");
+			}
+			return new TreePatcher(bundle, baseDirectory, outputDirectory, pool, listener);
+		}
+	}
+
+}
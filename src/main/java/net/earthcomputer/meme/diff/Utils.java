@@ -2,6 +2,11 @@ package net.earthcomputer.meme.diff;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -9,9 +14,23 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Scanner;
 import java.util.regex.Pattern;
 
+import com.sun.management.ThreadMXBean;
+
 class Utils {
 
 	private Utils() {
@@ -25,6 +44,59 @@ class Utils {
 		}
 	}
 
+	/**
+	 * Maps the given file into memory, read-only. Returns <tt>null</tt> if the
+	 * file is too big to fit in a single buffer
+	 */
+	static ByteBuffer mapFile(File file) {
+		FileChannel channel = null;
+		try {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				return null;
+			}
+			// The mapping stays valid after the channel is closed
+			return channel.map(MapMode.READ_ONLY, 0, size);
+		} catch (IOException e) {
+			throw new NoSuchFileException(file.getAbsolutePath(), e);
+		} finally {
+			if (channel != null) {
+				closeQuietly(channel);
+			}
+		}
+	}
+
+	/**
+	 * Returns an input stream which reads from a memory mapping of the given
+	 * file, or from the file itself if it's too big to be mapped
+	 */
+	static InputStream getMappedFileInputStream(File file) {
+		ByteBuffer buffer = mapFile(file);
+		return buffer == null ? getFileInputStream(file) : new ByteBufferInputStream(buffer);
+	}
+
+	/**
+	 * Reads all the lines from the given file, from a memory mapping of it
+	 * where possible
+	 */
+	static <T> List<T> readElements(IDiffFormat<T> format, File file) {
+		ByteBuffer buffer = mapFile(file);
+		try {
+			if (buffer != null) {
+				return format.readElementsFromBaseFile(buffer);
+			}
+			InputStream in = getFileInputStream(file);
+			try {
+				return format.readElementsFromBaseFile(in);
+			} finally {
+				closeQuietly(in);
+			}
+		} catch (IOException e) {
+			throw new NoSuchFileException(file.getAbsolutePath(), e);
+		}
+	}
+
 	static OutputStream getFileOutputStream(File file) {
 		try {
 			return new BufferedOutputStream(new FileOutputStream(file));
@@ -33,6 +105,114 @@ class Utils {
 		}
 	}
 
+	/**
+	 * Returns whether the two files have exactly the same contents. Files of
+	 * different sizes are never read
+	 */
+	static boolean contentEquals(File file1, File file2) {
+		long length = file1.length();
+		if (length != file2.length()) {
+			return false;
+		}
+
+		ByteBuffer mapping1 = mapFile(file1);
+		ByteBuffer mapping2 = mapping1 == null ? null : mapFile(file2);
+		if (mapping1 != null && mapping2 != null) {
+			return mapping1.equals(mapping2);
+		}
+
+		DataInputStream in1 = new DataInputStream(getFileInputStream(file1));
+		DataInputStream in2 = new DataInputStream(getFileInputStream(file2));
+		try {
+			byte[] buffer1 = new byte[8192];
+			byte[] buffer2 = new byte[8192];
+			while (length > 0) {
+				int chunkSize = (int) Math.min(length, buffer1.length);
+				in1.readFully(buffer1, 0, chunkSize);
+				in2.readFully(buffer2, 0, chunkSize);
+				for (int i = 0; i < chunkSize; i++) {
+					if (buffer1[i] != buffer2[i]) {
+						return false;
+					}
+				}
+				length -= chunkSize;
+			}
+			return true;
+		} catch (IOException e) {
+			throw new NoSuchFileException(file1.getAbsolutePath(), e);
+		} finally {
+			closeQuietly(in1);
+			closeQuietly(in2);
+		}
+	}
+
+	static MessageDigest newSha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every JVM has to support SHA-256
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * Returns the SHA-256 hash of the contents of the given file
+	 */
+	static byte[] sha256(File file) {
+		MessageDigest digest = newSha256();
+		ByteBuffer buffer = mapFile(file);
+		if (buffer != null) {
+			digest.update(buffer);
+			return digest.digest();
+		}
+		InputStream in = getFileInputStream(file);
+		try {
+			byte[] chunk = new byte[65536];
+			int read;
+			while ((read = in.read(chunk)) != -1) {
+				digest.update(chunk, 0, read);
+			}
+			return digest.digest();
+		} catch (IOException e) {
+			throw new NoSuchFileException(file.getAbsolutePath(), e);
+		} finally {
+			closeQuietly(in);
+		}
+	}
+
+	private static final ThreadMXBean THREAD_MX_BEAN = getThreadMXBean();
+
+	private static ThreadMXBean getThreadMXBean() {
+		try {
+			java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if (bean instanceof ThreadMXBean && ((ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+				return (ThreadMXBean) bean;
+			}
+		} catch (LinkageError e) {
+			// Not a HotSpot JVM
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the total number of bytes the current thread has allocated, or
+	 * -1 if the JVM can't measure it
+	 */
+	static long getAllocatedBytes() {
+		if (THREAD_MX_BEAN == null || !THREAD_MX_BEAN.isThreadAllocatedMemoryEnabled()) {
+			return -1;
+		}
+		return THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+
 	private static final Pattern NEWLINE_PATTERN = Pattern.compile("\n");
 
 	static boolean hasNextLine(Scanner scanner) {
@@ -44,6 +224,26 @@ class Utils {
 		}
 	}
 	
+	/**
+	 * Returns an iterator over the lines which are left in the given scanner
+	 */
+	static Iterator<String> lines(final Scanner scanner) {
+		return new Iterator<String>() {
+			@Override
+			public boolean hasNext() {
+				return hasNextLine(scanner);
+			}
+
+			@Override
+			public String next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return nextLine(scanner);
+			}
+		};
+	}
+
 	static String nextLine(Scanner scanner) {
 		if (scanner.hasNextLine()) {
 			return scanner.nextLine();
@@ -52,4 +252,120 @@ class Utils {
 			return scanner.next();
 		}
 	}
+
+	/**
+	 * Writes an unsigned LEB128 varint: 7 bits at a time, lowest bits first,
+	 * with the top bit of each byte set if there are more bytes to come
+	 */
+	static void writeVarInt(DataOutput out, int value) throws IOException {
+		while ((value & ~0x7f) != 0) {
+			out.writeByte((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	/**
+	 * Reads a varint written by {@link #writeVarInt(DataOutput, int)}
+	 */
+	static int readVarInt(DataInput in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	/**
+	 * Reads a varint written by {@link #writeVarInt(DataOutput, int)} from the
+	 * buffer's position
+	 */
+	static int readVarInt(ByteBuffer buffer) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			if (!buffer.hasRemaining()) {
+				throw new EOFException();
+			}
+			int b = buffer.get() & 0xff;
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	/**
+	 * Reads exactly <tt>length</tt> bytes. The length may come from a corrupt
+	 * file, so the array only grows as the bytes are actually read, rather
+	 * than being allocated in one go
+	 */
+	static byte[] readBytes(InputStream in, int length) throws IOException {
+		byte[] bytes = new byte[Math.min(length, 65536)];
+		int read = 0;
+		while (read < length) {
+			if (read == bytes.length) {
+				bytes = Arrays.copyOf(bytes, (int) Math.min(length, bytes.length * 2L));
+			}
+			int n = in.read(bytes, read, bytes.length - read);
+			if (n == -1) {
+				throw new EOFException();
+			}
+			read += n;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Writes a signed varint, zigzag encoded so that small negative numbers
+	 * are small too
+	 */
+	static void writeSignedVarInt(DataOutput out, int value) throws IOException {
+		writeVarInt(out, (value << 1) ^ (value >> 31));
+	}
+
+	/**
+	 * Reads a varint written by {@link #writeSignedVarInt(DataOutput, int)}
+	 */
+	static int readSignedVarInt(DataInput in) throws IOException {
+		int value = readVarInt(in);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Writes a string as its length in UTF-8 bytes as a varint, followed by
+	 * those bytes. Unlike {@link DataOutput#writeUTF(String)}, the string can
+	 * be any length
+	 */
+	static void writeString(DataOutput out, String str) throws IOException {
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(out, bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(DataOutput, String)} from
+	 * the buffer's position
+	 */
+	static String readString(ByteBuffer buffer) throws IOException {
+		int length = readVarInt(buffer);
+		if (length < 0 || length > buffer.remaining()) {
+			throw new EOFException();
+		}
+		String str;
+		if (buffer.hasArray()) {
+			str = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+					StandardCharsets.UTF_8);
+			buffer.position(buffer.position() + length);
+		} else {
+			byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			str = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return str;
+	}
 }